@@ -0,0 +1,242 @@
+package com.gpergrossi.util.data;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/**
+ * <p>A concurrent open-addressing hash map from primitive long keys to objects. Lookups are lock-free
+ * and never allocate or box the key. Insertions and removals are serialized by a lock on the map, so
+ * this map suits workloads with many more reads than writes, such as a registry of chunks keyed by
+ * {@link #pack(int, int) packed} coordinates.</p>
+ *
+ * <p>Entries live in a linear-probing table. A reader sees an entry once its value has been published,
+ * and the key of a slot is always written before its value. Removed entries leave a tombstone that
+ * is cleared when the table is rebuilt. Null values are not permitted.</p>
+ *
+ * @param <V> the type of value stored in this map
+ */
+public class ConcurrentLongMap<V> {
+
+	private static final int MIN_CAPACITY = 16;
+	private static final Object TOMBSTONE = new Object();
+
+	private static final class Table {
+		final long[] keys;
+		final AtomicReferenceArray<Object> values;
+		final int mask;
+
+		Table(int capacity) {
+			this.keys = new long[capacity];
+			this.values = new AtomicReferenceArray<>(capacity);
+			this.mask = capacity-1;
+		}
+	}
+
+	private volatile Table table;
+	private volatile int size;
+	private int used;	// Slots holding a value or a tombstone (guarded by this)
+
+	public ConcurrentLongMap() {
+		this(MIN_CAPACITY);
+	}
+
+	/**
+	 * @param expectedSize - the number of entries this map should hold without rebuilding its table
+	 */
+	public ConcurrentLongMap(int expectedSize) {
+		this.table = new Table(capacityFor(expectedSize));
+	}
+
+	/**
+	 * Packs two ints into a single long key, e.g. the x and y coordinates of a chunk
+	 */
+	public static long pack(int x, int y) {
+		return ((long) x << 32) | (y & 0xFFFFFFFFL);
+	}
+
+	public static int unpackX(long key) {
+		return (int) (key >> 32);
+	}
+
+	public static int unpackY(long key) {
+		return (int) key;
+	}
+
+	private static int capacityFor(int expectedSize) {
+		// Keep the table at most half full
+		int capacity = MIN_CAPACITY;
+		while (capacity < expectedSize*2 && capacity < (1 << 30)) capacity <<= 1;
+		return capacity;
+	}
+
+	private static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xFF51AFD7ED558CCDL;
+		key ^= key >>> 33;
+		key *= 0xC4CEB9FE1A85EC53L;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	/**
+	 * @return the value mapped to the key, or null if there is none. Does not lock.
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		final Table t = table;
+		int index = hash(key) & t.mask;
+		while (true) {
+			final Object value = t.values.get(index);
+			if (value == null) return null;
+			if (value != TOMBSTONE && t.keys[index] == key) return (V) value;
+			index = (index+1) & t.mask;
+		}
+	}
+
+	public boolean containsKey(long key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Returns the value mapped to the key, first mapping it to the result of the given function
+	 * if there is none. The function is called at most once per key, while holding this map's lock,
+	 * and must not modify this map.
+	 */
+	public V computeIfAbsent(long key, LongFunction<? extends V> function) {
+		final V value = get(key);
+		if (value != null) return value;
+
+		synchronized (this) {
+			final V existing = get(key);
+			if (existing != null) return existing;
+
+			final V created = function.apply(key);
+			if (created == null) throw new NullPointerException("ConcurrentLongMap does not permit null values");
+			insert(key, created);
+			return created;
+		}
+	}
+
+	/**
+	 * @return the previous value mapped to the key, or null if the value was added
+	 */
+	public V putIfAbsent(long key, V value) {
+		if (value == null) throw new NullPointerException("ConcurrentLongMap does not permit null values");
+		final V existing = get(key);
+		if (existing != null) return existing;
+
+		synchronized (this) {
+			final V current = get(key);
+			if (current != null) return current;
+			insert(key, value);
+			return null;
+		}
+	}
+
+	/**
+	 * @return the value that was removed, or null if the key was not mapped
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized V remove(long key) {
+		final Table t = table;
+		int index = hash(key) & t.mask;
+		while (true) {
+			final Object value = t.values.get(index);
+			if (value == null) return null;
+			if (value != TOMBSTONE && t.keys[index] == key) {
+				t.values.set(index, TOMBSTONE);
+				size--;
+				return (V) value;
+			}
+			index = (index+1) & t.mask;
+		}
+	}
+
+	/**
+	 * Removes the entry for the key only if it is currently mapped to the given value (compared by identity).
+	 * @return true if the entry was removed
+	 */
+	public synchronized boolean remove(long key, V value) {
+		final Table t = table;
+		int index = hash(key) & t.mask;
+		while (true) {
+			final Object current = t.values.get(index);
+			if (current == null) return false;
+			if (current != TOMBSTONE && t.keys[index] == key) {
+				if (current != value) return false;
+				t.values.set(index, TOMBSTONE);
+				size--;
+				return true;
+			}
+			index = (index+1) & t.mask;
+		}
+	}
+
+	/**
+	 * Adds a key known to be absent. Must hold the lock.
+	 */
+	private void insert(long key, Object value) {
+		if ((used+1)*2 > table.keys.length) rebuild(size+1);
+
+		final Table t = table;
+		int index = hash(key) & t.mask;
+		while (true) {
+			final Object current = t.values.get(index);
+			if (current == null) break;
+			index = (index+1) & t.mask;
+		}
+		t.keys[index] = key;
+		t.values.set(index, value); // Publishes the key along with the value
+		used++;
+		size++;
+	}
+
+	/**
+	 * Copies all live entries into a new table sized for the given number of entries, dropping
+	 * tombstones. The old table is never modified again, so concurrent readers remain correct.
+	 */
+	private void rebuild(int expectedSize) {
+		final Table old = table;
+		final Table t = new Table(capacityFor(expectedSize));
+		for (int i = 0; i < old.keys.length; i++) {
+			final Object value = old.values.get(i);
+			if (value == null || value == TOMBSTONE) continue;
+			int index = hash(old.keys[i]) & t.mask;
+			while (t.values.get(index) != null) index = (index+1) & t.mask;
+			t.keys[index] = old.keys[i];
+			t.values.lazySet(index, value);
+		}
+		used = size;
+		table = t;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public synchronized void clear() {
+		table = new Table(MIN_CAPACITY);
+		used = 0;
+		size = 0;
+	}
+
+	/**
+	 * Calls the consumer for every value in the map. Does not lock; values added or removed
+	 * during the iteration may or may not be visited.
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEachValue(Consumer<? super V> consumer) {
+		final Table t = table;
+		for (int i = 0; i < t.keys.length; i++) {
+			final Object value = t.values.get(i);
+			if (value == null || value == TOMBSTONE) continue;
+			consumer.accept((V) value);
+		}
+	}
+
+}
@@ -0,0 +1,84 @@
+package com.gpergrossi.util.data;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>A thread safe histogram of non-negative long values (e.g. latencies in nanoseconds) with
+ * one bucket per power of two. Recording a value is a handful of atomic increments and never
+ * allocates, which makes it suitable for instrumenting hot paths.</p>
+ *
+ * <p>Percentiles are approximate: they are reported as the upper bound of the bucket that
+ * contains the requested rank, so they are accurate to within a factor of two.</p>
+ */
+public class LogHistogram {
+
+	private static final int NUM_BUCKETS = 64;
+
+	private final AtomicLongArray buckets;
+	private final LongAdder count;
+	private final LongAdder sum;
+
+	public LogHistogram() {
+		this.buckets = new AtomicLongArray(NUM_BUCKETS);
+		this.count = new LongAdder();
+		this.sum = new LongAdder();
+	}
+
+	public void record(long value) {
+		if (value < 0) value = 0;
+		final int bucket = NUM_BUCKETS - Long.numberOfLeadingZeros(value);
+		buckets.incrementAndGet(Math.min(bucket, NUM_BUCKETS-1));
+		count.increment();
+		sum.add(value);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getSum() {
+		return sum.sum();
+	}
+
+	public double getMean() {
+		final long n = count.sum();
+		if (n == 0) return 0;
+		return (double) sum.sum() / n;
+	}
+
+	/**
+	 * @param percentile - between 0 and 100
+	 * @return the upper bound of the bucket containing the given percentile, or 0 if empty
+	 */
+	public long getPercentile(double percentile) {
+		final long[] snapshot = new long[NUM_BUCKETS];
+		long total = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			snapshot[i] = buckets.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) return 0;
+
+		final long rank = (long) Math.ceil(total * Math.max(0, Math.min(100, percentile)) / 100.0);
+		long seen = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank && snapshot[i] > 0) return upperBound(i);
+		}
+		return upperBound(NUM_BUCKETS-1);
+	}
+
+	private static long upperBound(int bucket) {
+		if (bucket == 0) return 0;
+		if (bucket >= NUM_BUCKETS-1) return Long.MAX_VALUE;
+		return (1L << bucket) - 1;
+	}
+
+	public void reset() {
+		for (int i = 0; i < NUM_BUCKETS; i++) buckets.set(i, 0);
+		count.reset();
+		sum.reset();
+	}
+
+}
@@ -16,7 +16,7 @@ public class XXHash32 {
 	 * @return
 	 */
 	private static int readInt(byte[] bytes, int offset) {
-		return bytes[offset] + (bytes[offset+1] << 8) + (bytes[offset+2] << 16) + (bytes[offset+3] << 24);
+		return (bytes[offset] & 0xFF) | ((bytes[offset+1] & 0xFF) << 8) | ((bytes[offset+2] & 0xFF) << 16) | ((bytes[offset+3] & 0xFF) << 24);
 	}
 	
 	/**
@@ -115,7 +115,7 @@ public class XXHash32 {
 				accumulatorLane0 = accumulateA(accumulatorLane0, readInt(bytes, readIndex));
 				accumulatorLane1 = accumulateA(accumulatorLane1, readInt(bytes, readIndex+4));
 				accumulatorLane2 = accumulateA(accumulatorLane2, readInt(bytes, readIndex+8));
-				accumulatorLane3 = accumulateA(accumulatorLane3, readInt(bytes, readIndex+16));
+				accumulatorLane3 = accumulateA(accumulatorLane3, readInt(bytes, readIndex+12));
 			}
 			
 			// Step 3. Accumulator convergence
@@ -130,8 +130,8 @@ public class XXHash32 {
 		for (; readIndex <= endInts; readIndex += 4) {
 		    accumulator = accumulateB(accumulator, readInt(bytes, readIndex));
 		}
-		if (readIndex < length) {
-		    accumulator = accumulateC(accumulator, (int) bytes[readIndex]);
+		for (; readIndex < end; readIndex++) {
+		    accumulator = accumulateC(accumulator, bytes[readIndex] & 0xFF);
 		}
 		
 		// Step 6. Final mix (avalanche)
@@ -6,26 +6,43 @@ public class DataSegment<Name, Data> extends Segment<Name, Data> {
 
 	protected Data dataObject;
 	
+	/**
+	 * The location of the copy replaced by the last {@link #writeData()}, which 
+	 * remains intact until the owner frees it. UNALLOCATED if there was none.
+	 */
+	protected int previousBlockIDStart = UNALLOCATED;
+	protected int previousSize;
+	
 	public DataSegment(NamedDataMapFile<Name, Data> ndmFile, int blockIDStart) {
 		super(ndmFile, blockIDStart);
 		this.copyOnResize = false;
 	}
 
+	/**
+	 * Writes the data object to newly claimed blocks. The current blocks are left untouched
+	 * and are recorded in {@link #previousBlockIDStart} and {@link #previousSize} so that 
+	 * they can be freed once nothing refers to them anymore.
+	 */
 	public void writeData() {
 		try {
 			if (dataObject == null) throw new RuntimeException("Cannot write null data!");
 			
 			final CompressionMethod compression = CompressionMethod.ZLIB;
 			final byte[] bytes = ndmFile.getDataArray(dataObject, compression);
+			final int checksum = ndmFile.checksum(bytes);
 			
-			// Reallocate if necessary
-			final int newSize = bytes.length + ndmFile.SIZE_SEGMENT_HEADER + ndmFile.SIZE_DATA_HEADER;
-			this.resize(newSize, true);
+			// Copy-on-write: always claim a new location
+			final int newSize = bytes.length + ndmFile.SIZE_SEGMENT_HEADER + ndmFile.SIZE_DATA_HEADER + ndmFile.SIZE_CHECKSUM;
+			this.previousBlockIDStart = this.blockIDStart;
+			this.previousSize = this.size;
+			this.blockIDStart = ndmFile.getClaim(ndmFile.numBlocks(newSize));
+			this.size = newSize;
 			
 			// Write data
 			ndmFile.seekBlock(this.blockIDStart, 0);
 			ndmFile.writeSegmentHeader(newSize);
-			ndmFile.writeDataHeader(compression.getCompressionID());
+			ndmFile.writeDataHeader((byte) (compression.getCompressionID() | NamedDataMapFile.DATA_FLAG_CHECKSUM));
+			ndmFile.writeBlockID(checksum);
 			ndmFile.writeDataArray(bytes);
 			
 		} catch (IOException e) {
@@ -38,11 +55,27 @@ public class DataSegment<Name, Data> extends Segment<Name, Data> {
 			
 			ndmFile.seekBlock(this.blockIDStart, 0);
 			this.size = ndmFile.readSegmentHeader();
-			final byte compressionID = ndmFile.readDataHeader();
-			final CompressionMethod compression = CompressionMethod.fromID(compressionID);
+			if (this.size < ndmFile.SIZE_SEGMENT_HEADER + ndmFile.SIZE_DATA_HEADER) {
+				throw new IOException("Invalid data segment size "+size+" at block "+blockIDStart);
+			}
+			
+			final byte dataHeader = ndmFile.readDataHeader();
+			final boolean hasChecksum = (dataHeader & NamedDataMapFile.DATA_FLAG_CHECKSUM) != 0;
+			final CompressionMethod compression = CompressionMethod.fromID((byte) (dataHeader & ~NamedDataMapFile.DATA_FLAG_CHECKSUM));
+			if (compression == null) throw new IOException("Unknown compression method "+dataHeader+" at block "+blockIDStart);
+			
+			int readSize = this.size - ndmFile.SIZE_SEGMENT_HEADER - ndmFile.SIZE_DATA_HEADER;
+			int expectedChecksum = 0;
+			if (hasChecksum) {
+				expectedChecksum = ndmFile.readBlockID();
+				readSize -= ndmFile.SIZE_CHECKSUM;
+			}
 			
-			final int readSize = this.size - ndmFile.SIZE_SEGMENT_HEADER - ndmFile.SIZE_DATA_HEADER;
-			this.dataObject = ndmFile.readData(readSize, compression);
+			final byte[] bytes = ndmFile.readDataArray(readSize);
+			if (hasChecksum && ndmFile.checksum(bytes) != expectedChecksum) {
+				throw new IOException("Checksum mismatch in data segment at block "+blockIDStart);
+			}
+			this.dataObject = ndmFile.decodeData(bytes, compression);
 			
 		} catch (IOException e) {
 			throw new RuntimeException(e);
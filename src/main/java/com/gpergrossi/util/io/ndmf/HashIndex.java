@@ -0,0 +1,457 @@
+package com.gpergrossi.util.io.ndmf;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.gpergrossi.util.hash.XXHash32;
+
+/**
+ * <p>An on-disk hash table index for a {@link NamedDataMapFile}. Unlike the linked {@link IndexSegment}s,
+ * which must all be read into memory when the file is opened, a HashIndex only reads the small header in
+ * block 0. Each lookup hashes the fixed-size name bytes to a bucket and reads that bucket's index segment,
+ * so a lookup touches O(1) index blocks. Recently used buckets are kept in a small LRU page cache.</p>
+ *
+ * <p><b>Layout:</b> Block 0 is a single-block segment whose body starts with {@link #MAGIC} (which a reader
+ * of the linked format sees as an invalid negative link in slot 0), followed by the number of buckets, the
+ * block index of the first bucket and the number of stored entries. The buckets are one-block index segments
+ * stored contiguously, so bucket i starts at block (firstBucket + i). Bucket segments use the same slot format
+ * as {@link IndexSegment}: (blockID, Name) pairs where the last slot is reserved for a negative link to an
+ * overflow segment.</p>
+ *
+ * <p>The stored number of entries is only written when the table is rehashed and when the file is closed.
+ * The first change after the header was written replaces it with {@link #UNKNOWN_ENTRIES}, so a file that
+ * was not closed cleanly recounts its entries (reading every bucket once) when it is next opened.</p>
+ *
+ * <p>When the number of entries exceeds {@link #MAX_LOAD_FACTOR} of the bucket capacity, the table is rebuilt
+ * with twice as many buckets. The new table is synced before the header is switched to it, and the old buckets
+ * are only freed by the sync after that, so a crash leaves the header pointing at a complete table whose blocks
+ * have not been reused. Overflow segments are likewise synced before they are linked into the live table.</p>
+ */
+public class HashIndex<Name, Data> extends AbstractMap<Name, Integer> {
+
+	protected static final int MAGIC = 0xAB1D0C5E;
+	protected static final int HASH_SEED = 0x1DE8;
+	protected static final double MAX_LOAD_FACTOR = 0.75;
+	protected static final int DEFAULT_CACHE_PAGES = 256;
+	protected static final int UNKNOWN_ENTRIES = -1;
+
+	private static final int SIZE_HEADER_BODY = 16;
+
+	protected final NamedDataMapFile<Name, Data> ndmFile;
+	protected final int SLOTS_PER_BUCKET;
+
+	private int numBuckets;
+	private int firstBucket;
+	private int numEntries;
+	private boolean headerDirty;	// The header holds UNKNOWN_ENTRIES instead of numEntries
+
+	private final LinkedHashMap<Integer, Page> pageCache;
+
+	private HashIndex(NamedDataMapFile<Name, Data> ndmFile, int cachePages) {
+		this.ndmFile = ndmFile;
+		this.SLOTS_PER_BUCKET = ndmFile.MAX_INDEX_ENTRY_SLOTS - 1;
+		if (SLOTS_PER_BUCKET < 1) throw new RuntimeException("SIZE_BLOCK is too small for a hashed index!");
+		if (ndmFile.SIZE_SEGMENT_HEADER + SIZE_HEADER_BODY > ndmFile.SIZE_BLOCK) throw new RuntimeException("SIZE_BLOCK is too small for a hashed index!");
+
+		this.pageCache = new LinkedHashMap<Integer, Page>(cachePages, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+				return size() > cachePages;
+			}
+		};
+	}
+
+	/**
+	 * Returns true if block 0 of the file holds a hashed index header
+	 */
+	protected static boolean isHashIndex(NamedDataMapFile<?, ?> ndmFile) throws IOException {
+		if (ndmFile.getFileLength() < ndmFile.SIZE_SEGMENT_HEADER + 4) return false;
+		ndmFile.seekBlock(0, ndmFile.SIZE_SEGMENT_HEADER);
+		return ndmFile.readBlockID() == MAGIC;
+	}
+
+	/**
+	 * Writes a new, empty hashed index into a file that contains no other segments.
+	 * Block 0 becomes the header and blocks 1 through numBuckets become the buckets.
+	 */
+	protected static void create(NamedDataMapFile<?, ?> ndmFile, int numBuckets) throws IOException {
+		if (numBuckets < 1) throw new IllegalArgumentException("Must have at least one bucket!");
+		ndmFile.setLength(ndmFile.blockOffset(numBuckets + 1));
+		writeHeader(ndmFile, numBuckets, 1, 0);
+		for (int bucket = 0; bucket < numBuckets; bucket++) {
+			writeEmptyBucket(ndmFile, 1 + bucket);
+		}
+	}
+
+	protected static <Name, Data> HashIndex<Name, Data> open(NamedDataMapFile<Name, Data> ndmFile, int cachePages) throws IOException {
+		final HashIndex<Name, Data> index = new HashIndex<>(ndmFile, cachePages);
+		ndmFile.seekBlock(0, 0);
+		final int size = ndmFile.readSegmentHeader();
+		final int magic = ndmFile.readBlockID();
+		if (magic != MAGIC || size < ndmFile.SIZE_SEGMENT_HEADER + SIZE_HEADER_BODY) throw new IOException("Block 0 is not a hashed index header!");
+		index.numBuckets = ndmFile.readBlockID();
+		index.firstBucket = ndmFile.readBlockID();
+		index.numEntries = ndmFile.readBlockID();
+		if (index.numEntries == UNKNOWN_ENTRIES) {
+			index.numEntries = index.countEntries();
+			index.headerDirty = true;
+		}
+		return index;
+	}
+
+	private static void writeHeader(NamedDataMapFile<?, ?> ndmFile, int numBuckets, int firstBucket, int numEntries) throws IOException {
+		ndmFile.seekBlock(0, 0);
+		ndmFile.writeSegmentHeader(ndmFile.SIZE_BLOCK);
+		ndmFile.writeBlockID(MAGIC);
+		ndmFile.writeBlockID(numBuckets);
+		ndmFile.writeBlockID(firstBucket);
+		ndmFile.writeBlockID(numEntries);
+	}
+
+	private static void writeEmptyBucket(NamedDataMapFile<?, ?> ndmFile, int blockID) throws IOException {
+		ndmFile.seekBlock(blockID, 0);
+		ndmFile.writeSegmentHeader(ndmFile.SIZE_SEGMENT_HEADER + ndmFile.MAX_INDEX_ENTRY_SLOTS * ndmFile.SIZE_INDEX_ENTRY);
+		ndmFile.writeZeros(ndmFile.MAX_INDEX_ENTRY_SLOTS * ndmFile.SIZE_INDEX_ENTRY);
+	}
+
+	/**
+	 * Marks the stored entry count as unknown before the first change since the header was written
+	 */
+	private void markDirty() throws IOException {
+		if (headerDirty) return;
+		writeHeader(ndmFile, numBuckets, firstBucket, UNKNOWN_ENTRIES);
+		headerDirty = true;
+	}
+	
+	/**
+	 * Writes the current entry count to the header. Called when the file is closed.
+	 */
+	protected void flush() throws IOException {
+		if (!headerDirty) return;
+		writeHeader(ndmFile, numBuckets, firstBucket, numEntries);
+		headerDirty = false;
+	}
+	
+	private int countEntries() throws IOException {
+		int count = 0;
+		for (int bucket = 0; bucket < numBuckets; bucket++) {
+			int blockID = firstBucket + bucket;
+			while (blockID > 0) {
+				final Page page = getPage(blockID);
+				for (int slot = 0; slot < SLOTS_PER_BUCKET; slot++) {
+					if (page.dataBlockIDs[slot] > 0) count++;
+				}
+				blockID = page.nextBlockID;
+			}
+		}
+		return count;
+	}
+
+	public int getNumBuckets() {
+		return numBuckets;
+	}
+
+	public int getFirstBucket() {
+		return firstBucket;
+	}
+
+	protected int bucketOf(Name name, int numBuckets) {
+		final byte[] bytes = ndmFile.getNameBytes(name);
+		final int hash = XXHash32.hashBytes(HASH_SEED, bytes, 0, bytes.length);
+		return (int) ((hash & 0xFFFFFFFFL) % numBuckets);
+	}
+
+	/**
+	 * A single bucket or overflow segment, fully parsed into memory
+	 */
+	private class Page {
+		final int blockID;
+		final int[] dataBlockIDs;
+		final Object[] names;
+		int nextBlockID;
+
+		Page(int blockID) throws IOException {
+			this.blockID = blockID;
+			this.dataBlockIDs = new int[SLOTS_PER_BUCKET];
+			this.names = new Object[SLOTS_PER_BUCKET];
+
+			ndmFile.seekBlock(blockID, 0);
+			ndmFile.readSegmentHeader();
+			for (int slot = 0; slot < SLOTS_PER_BUCKET; slot++) {
+				final int dataBlockID = ndmFile.readBlockID();
+				if (dataBlockID > 0) {
+					dataBlockIDs[slot] = dataBlockID;
+					names[slot] = ndmFile.readName();
+				} else {
+					ndmFile.skipName();
+				}
+			}
+			final int link = ndmFile.readBlockID();
+			this.nextBlockID = (link < 0) ? -link : 0;
+		}
+
+		@SuppressWarnings("unchecked")
+		Name getName(int slot) {
+			return (Name) names[slot];
+		}
+
+		int find(Name name) {
+			for (int slot = 0; slot < SLOTS_PER_BUCKET; slot++) {
+				if (dataBlockIDs[slot] > 0 && name.equals(names[slot])) return slot;
+			}
+			return -1;
+		}
+
+		int findEmpty() {
+			for (int slot = 0; slot < SLOTS_PER_BUCKET; slot++) {
+				if (dataBlockIDs[slot] == 0) return slot;
+			}
+			return -1;
+		}
+
+		void set(int slot, Name name, int dataBlockID) throws IOException {
+			dataBlockIDs[slot] = dataBlockID;
+			names[slot] = (dataBlockID > 0) ? name : null;
+
+			ndmFile.seekBlock(blockID, ndmFile.SIZE_SEGMENT_HEADER + slot * ndmFile.SIZE_INDEX_ENTRY);
+			ndmFile.writeBlockID(dataBlockID);
+			if (dataBlockID > 0) ndmFile.writeName(name);
+			else ndmFile.writeBlankName();
+			pageCache.put(blockID, this);
+		}
+
+		void link(int overflowBlockID) throws IOException {
+			this.nextBlockID = overflowBlockID;
+			ndmFile.seekBlock(blockID, ndmFile.SIZE_SEGMENT_HEADER + SLOTS_PER_BUCKET * ndmFile.SIZE_INDEX_ENTRY);
+			ndmFile.writeBlockID(-overflowBlockID);
+			pageCache.put(blockID, this);
+		}
+	}
+
+	private Page getPage(int blockID) {
+		Page page = pageCache.get(blockID);
+		if (page != null) return page;
+		try {
+			page = new Page(blockID);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		pageCache.put(blockID, page);
+		return page;
+	}
+
+	@Override
+	public int size() {
+		return numEntries;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public boolean containsKey(Object key) {
+		return get((Name) key) != null;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Integer get(Object key) {
+		final Name name = (Name) key;
+		int blockID = firstBucket + bucketOf(name, numBuckets);
+		while (blockID > 0) {
+			final Page page = getPage(blockID);
+			final int slot = page.find(name);
+			if (slot >= 0) return page.dataBlockIDs[slot];
+			blockID = page.nextBlockID;
+		}
+		return null;
+	}
+
+	@Override
+	public Integer put(Name name, Integer value) {
+		if (value == null || value == 0) return remove(name);
+		if (value < 0) throw new IllegalArgumentException("Cannot set a negative offset!");
+
+		try {
+			markDirty();
+			final Integer old = insert(name, value, firstBucket, numBuckets, true);
+			if (old == null) {
+				numEntries++;
+				if (numEntries > MAX_LOAD_FACTOR * numBuckets * SLOTS_PER_BUCKET) rehash(numBuckets * 2);
+			}
+			return old;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Inserts or updates an entry in the table that starts at block {@link tableStart}
+	 * @param live - true if the header points at the table, so new overflow segments must be synced before they are linked
+	 * @return the previous block ID for the name, or null if it was not present
+	 */
+	private Integer insert(Name name, int value, int tableStart, int tableBuckets, boolean live) throws IOException {
+		Page page = getPage(tableStart + bucketOf(name, tableBuckets));
+		Page firstOpen = null;
+		int firstOpenSlot = -1;
+
+		while (true) {
+			final int slot = page.find(name);
+			if (slot >= 0) {
+				final int old = page.dataBlockIDs[slot];
+				if (old != value) page.set(slot, name, value);
+				return old;
+			}
+			if (firstOpen == null) {
+				firstOpenSlot = page.findEmpty();
+				if (firstOpenSlot >= 0) firstOpen = page;
+			}
+			if (page.nextBlockID <= 0) break;
+			page = getPage(page.nextBlockID);
+		}
+
+		if (firstOpen == null) {
+			// Every page in the chain is full: append an overflow segment
+			final int overflowBlockID = ndmFile.getClaim(1);
+			writeEmptyBucket(ndmFile, overflowBlockID);
+			if (live) ndmFile.writeBarrier();
+			page.link(overflowBlockID);
+			firstOpen = getPage(overflowBlockID);
+			firstOpenSlot = 0;
+		}
+		firstOpen.set(firstOpenSlot, name, value);
+		return null;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Integer remove(Object key) {
+		final Name name = (Name) key;
+		int blockID = firstBucket + bucketOf(name, numBuckets);
+		try {
+			while (blockID > 0) {
+				final Page page = getPage(blockID);
+				final int slot = page.find(name);
+				if (slot >= 0) {
+					final int old = page.dataBlockIDs[slot];
+					markDirty();
+					page.set(slot, null, 0);
+					numEntries--;
+					return old;
+				}
+				blockID = page.nextBlockID;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return null;
+	}
+
+	/**
+	 * Rebuilds the table with {@link newNumBuckets} buckets in a newly claimed region. The new table
+	 * is synced before the header is switched to it, and the old buckets are freed after the next sync.
+	 */
+	private void rehash(int newNumBuckets) throws IOException {
+		if (ndmFile.debug) System.out.println("Rehashing index from "+numBuckets+" to "+newNumBuckets+" buckets");
+
+		final int newFirstBucket = ndmFile.getClaim(newNumBuckets);
+		for (int bucket = 0; bucket < newNumBuckets; bucket++) {
+			writeEmptyBucket(ndmFile, newFirstBucket + bucket);
+		}
+
+		for (int bucket = 0; bucket < numBuckets; bucket++) {
+			int blockID = firstBucket + bucket;
+			while (blockID > 0) {
+				final Page page = getPage(blockID);
+				for (int slot = 0; slot < SLOTS_PER_BUCKET; slot++) {
+					if (page.dataBlockIDs[slot] > 0) insert(page.getName(slot), page.dataBlockIDs[slot], newFirstBucket, newNumBuckets, false);
+				}
+				blockID = page.nextBlockID;
+			}
+		}
+		ndmFile.writeBarrier();
+
+		final int oldFirstBucket = firstBucket;
+		final int oldNumBuckets = numBuckets;
+		writeHeader(ndmFile, newNumBuckets, newFirstBucket, numEntries);
+		this.headerDirty = false;
+		this.firstBucket = newFirstBucket;
+		this.numBuckets = newNumBuckets;
+
+		for (int bucket = 0; bucket < oldNumBuckets; bucket++) {
+			int blockID = getPage(oldFirstBucket + bucket).nextBlockID;
+			while (blockID > 0) {
+				final int next = getPage(blockID).nextBlockID;
+				ndmFile.freeBlocksAfterSync(blockID, blockID);
+				blockID = next;
+			}
+		}
+		ndmFile.freeBlocksAfterSync(oldFirstBucket, oldFirstBucket + oldNumBuckets - 1);
+		pageCache.clear();
+	}
+
+	@Override
+	public Set<Entry<Name, Integer>> entrySet() {
+		return new AbstractSet<Entry<Name, Integer>>() {
+			@Override
+			public int size() {
+				return numEntries;
+			}
+
+			@Override
+			public Iterator<Entry<Name, Integer>> iterator() {
+				return new Iterator<Entry<Name, Integer>>() {
+					int bucket = 0;
+					int blockID = firstBucket;
+					int slot = -1;
+					Entry<Name, Integer> next = advance();
+					Name lastName;
+
+					private Entry<Name, Integer> advance() {
+						while (bucket < numBuckets) {
+							final Page page = getPage(blockID);
+							for (slot++; slot < SLOTS_PER_BUCKET; slot++) {
+								if (page.dataBlockIDs[slot] > 0) return new SimpleImmutableEntry<>(page.getName(slot), page.dataBlockIDs[slot]);
+							}
+							slot = -1;
+							if (page.nextBlockID > 0) {
+								blockID = page.nextBlockID;
+							} else {
+								bucket++;
+								blockID = firstBucket + bucket;
+							}
+						}
+						return null;
+					}
+
+					@Override
+					public boolean hasNext() {
+						return next != null;
+					}
+
+					@Override
+					public Entry<Name, Integer> next() {
+						if (next == null) throw new NoSuchElementException();
+						final Entry<Name, Integer> result = next;
+						lastName = result.getKey();
+						next = advance();
+						return result;
+					}
+
+					@Override
+					public void remove() {
+						if (lastName == null) throw new IllegalStateException();
+						HashIndex.this.remove(lastName);
+						lastName = null;
+					}
+				};
+			}
+		};
+	}
+
+}
@@ -0,0 +1,72 @@
+package com.gpergrossi.util.io.ndmf;
+
+/**
+ * <p>A sink for instrumentation events reported by a {@link NamedDataMapFile}. Every method has an
+ * empty default implementation, so a sink only needs to override the events it is interested in.</p>
+ *
+ * <p>Events are reported from whichever thread performs the operation, usually while holding the
+ * NamedDataMapFile's monitor. Implementations should be thread safe and must not block.</p>
+ *
+ * @see NDMFStatistics
+ */
+public interface NDMFMetrics {
+
+	/**
+	 * A sink that ignores all events. This is the default sink of a NamedDataMapFile.
+	 */
+	public static NDMFMetrics NONE = new NDMFMetrics() {};
+
+	public static enum Operation {
+		HAS, GET, PUT, GET_ALL, PUT_ALL, SYNC;
+	}
+
+	/**
+	 * A data segment was read
+	 * @param storedBytes - number of (compressed) bytes read from the file
+	 * @param rawBytes - number of bytes after decompression
+	 */
+	public default void dataRead(int storedBytes, int rawBytes) {}
+
+	/**
+	 * A data segment was written
+	 * @param storedBytes - number of (compressed) bytes written to the file
+	 * @param rawBytes - number of bytes before compression
+	 */
+	public default void dataWritten(int storedBytes, int rawBytes) {}
+
+	/**
+	 * The file pointer was moved to a new position
+	 */
+	public default void seek() {}
+
+	/**
+	 * The file was forced to the disk
+	 * @param nanos - time spent waiting for the sync
+	 */
+	public default void sync(long nanos) {}
+
+	/**
+	 * A new allocation searched the free block set
+	 * @param blocksSearched - number of free blocks visited before a large enough range was found
+	 * @param blocksClaimed - number of blocks allocated
+	 */
+	public default void allocation(int blocksSearched, int blocksClaimed) {}
+
+	/**
+	 * A lookup was served from the data cache without reading the file
+	 */
+	public default void cacheHit() {}
+
+	/**
+	 * A lookup had to read the file
+	 */
+	public default void cacheMiss() {}
+
+	/**
+	 * A public operation completed
+	 * @param operation - the kind of operation
+	 * @param nanos - time from the call to its return, including time waiting for the monitor
+	 */
+	public default void operation(Operation operation, long nanos) {}
+
+}
@@ -0,0 +1,220 @@
+package com.gpergrossi.util.io.ndmf;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.gpergrossi.util.data.LogHistogram;
+
+/**
+ * <p>An {@link NDMFMetrics} sink that accumulates counters and per-operation latency histograms.
+ * One instance may be shared by several files (e.g. all shards of a {@link ShardedNamedDataMapFile})
+ * to collect combined statistics.</p>
+ *
+ * <p>The statistics can be published over JMX with {@link #register(String)}.</p>
+ */
+public class NDMFStatistics implements NDMFMetrics, NDMFStatisticsMBean {
+
+	private final LongAdder storedBytesRead = new LongAdder();
+	private final LongAdder rawBytesRead = new LongAdder();
+	private final LongAdder storedBytesWritten = new LongAdder();
+	private final LongAdder rawBytesWritten = new LongAdder();
+
+	private final LongAdder seeks = new LongAdder();
+	private final LongAdder syncs = new LongAdder();
+	private final LongAdder syncNanos = new LongAdder();
+
+	private final LongAdder allocations = new LongAdder();
+	private final LongAdder allocationBlocksSearched = new LongAdder();
+
+	private final LongAdder cacheHits = new LongAdder();
+	private final LongAdder cacheMisses = new LongAdder();
+
+	private final Map<Operation, LogHistogram> latencies;
+
+	private ObjectName registeredName;
+
+	public NDMFStatistics() {
+		this.latencies = new EnumMap<>(Operation.class);
+		for (Operation operation : Operation.values()) {
+			latencies.put(operation, new LogHistogram());
+		}
+	}
+
+	@Override
+	public void dataRead(int storedBytes, int rawBytes) {
+		storedBytesRead.add(storedBytes);
+		rawBytesRead.add(rawBytes);
+	}
+
+	@Override
+	public void dataWritten(int storedBytes, int rawBytes) {
+		storedBytesWritten.add(storedBytes);
+		rawBytesWritten.add(rawBytes);
+	}
+
+	@Override
+	public void seek() {
+		seeks.increment();
+	}
+
+	@Override
+	public void sync(long nanos) {
+		syncs.increment();
+		syncNanos.add(nanos);
+	}
+
+	@Override
+	public void allocation(int blocksSearched, int blocksClaimed) {
+		allocations.increment();
+		allocationBlocksSearched.add(blocksSearched);
+	}
+
+	@Override
+	public void cacheHit() {
+		cacheHits.increment();
+	}
+
+	@Override
+	public void cacheMiss() {
+		cacheMisses.increment();
+	}
+
+	@Override
+	public void operation(Operation operation, long nanos) {
+		latencies.get(operation).record(nanos);
+	}
+
+	public LogHistogram getLatencyHistogram(Operation operation) {
+		return latencies.get(operation);
+	}
+
+	@Override
+	public long getStoredBytesRead() {
+		return storedBytesRead.sum();
+	}
+
+	@Override
+	public long getRawBytesRead() {
+		return rawBytesRead.sum();
+	}
+
+	@Override
+	public long getStoredBytesWritten() {
+		return storedBytesWritten.sum();
+	}
+
+	@Override
+	public long getRawBytesWritten() {
+		return rawBytesWritten.sum();
+	}
+
+	@Override
+	public long getSeeks() {
+		return seeks.sum();
+	}
+
+	@Override
+	public long getSyncs() {
+		return syncs.sum();
+	}
+
+	@Override
+	public long getSyncNanos() {
+		return syncNanos.sum();
+	}
+
+	@Override
+	public long getAllocations() {
+		return allocations.sum();
+	}
+
+	@Override
+	public long getAllocationBlocksSearched() {
+		return allocationBlocksSearched.sum();
+	}
+
+	@Override
+	public long getCacheHits() {
+		return cacheHits.sum();
+	}
+
+	@Override
+	public long getCacheMisses() {
+		return cacheMisses.sum();
+	}
+
+	@Override
+	public long getOperationCount(String operation) {
+		return latencies.get(Operation.valueOf(operation)).getCount();
+	}
+
+	@Override
+	public double getMeanLatencyMicros(String operation) {
+		return latencies.get(Operation.valueOf(operation)).getMean() / 1000.0;
+	}
+
+	@Override
+	public double getLatencyPercentileMicros(String operation, double percentile) {
+		return latencies.get(Operation.valueOf(operation)).getPercentile(percentile) / 1000.0;
+	}
+
+	@Override
+	public void reset() {
+		storedBytesRead.reset();
+		rawBytesRead.reset();
+		storedBytesWritten.reset();
+		rawBytesWritten.reset();
+		seeks.reset();
+		syncs.reset();
+		syncNanos.reset();
+		allocations.reset();
+		allocationBlocksSearched.reset();
+		cacheHits.reset();
+		cacheMisses.reset();
+		for (LogHistogram histogram : latencies.values()) {
+			histogram.reset();
+		}
+	}
+
+	/**
+	 * Registers these statistics with the platform MBean server under
+	 * "com.gpergrossi.util.io.ndmf:type=NDMFStatistics,name=<i>name</i>"
+	 */
+	public synchronized void register(String name) throws JMException {
+		if (registeredName != null) throw new IllegalStateException("NDMFStatistics are already registered as "+registeredName);
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName objectName = new ObjectName("com.gpergrossi.util.io.ndmf:type=NDMFStatistics,name="+ObjectName.quote(name));
+		server.registerMBean(this, objectName);
+		this.registeredName = objectName;
+	}
+
+	public synchronized void unregister() throws JMException {
+		if (registeredName == null) return;
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+		this.registeredName = null;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("NDMFStatistics[");
+		sb.append("read=").append(getStoredBytesRead()).append('/').append(getRawBytesRead());
+		sb.append(", written=").append(getStoredBytesWritten()).append('/').append(getRawBytesWritten());
+		sb.append(", seeks=").append(getSeeks());
+		sb.append(", syncs=").append(getSyncs());
+		sb.append(", cache=").append(getCacheHits()).append('/').append(getCacheHits() + getCacheMisses());
+		for (Operation operation : Operation.values()) {
+			final LogHistogram histogram = latencies.get(operation);
+			if (histogram.getCount() == 0) continue;
+			sb.append(", ").append(operation).append("=").append(histogram.getCount());
+			sb.append(String.format(" (mean %.1fus)", histogram.getMean() / 1000.0));
+		}
+		return sb.append(']').toString();
+	}
+
+}
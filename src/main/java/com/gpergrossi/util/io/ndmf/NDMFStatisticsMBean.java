@@ -0,0 +1,29 @@
+package com.gpergrossi.util.io.ndmf;
+
+/**
+ * JMX management interface of {@link NDMFStatistics}
+ */
+public interface NDMFStatisticsMBean {
+
+	public long getStoredBytesRead();
+	public long getRawBytesRead();
+	public long getStoredBytesWritten();
+	public long getRawBytesWritten();
+
+	public long getSeeks();
+	public long getSyncs();
+	public long getSyncNanos();
+
+	public long getAllocations();
+	public long getAllocationBlocksSearched();
+
+	public long getCacheHits();
+	public long getCacheMisses();
+
+	public long getOperationCount(String operation);
+	public double getMeanLatencyMicros(String operation);
+	public double getLatencyPercentileMicros(String operation, double percentile);
+
+	public void reset();
+
+}
@@ -1,13 +1,23 @@
 package com.gpergrossi.util.io.ndmf;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import com.gpergrossi.util.data.queue.PriorityMultiQueue;
 import com.gpergrossi.util.data.queue.ReadOnlyQueue;
@@ -15,6 +25,78 @@ import com.gpergrossi.util.geom.vectors.Int2D;
 
 public class NDMFVerifier {
 
+	private static final int CHECKSUM_BATCH_SIZE = 256;
+	
+	/**
+	 * <p>Validates the checksum of every data segment referenced by the index. Segments are read
+	 * in parallel on the given executor using positional reads, so the file pointer of the 
+	 * NamedDataMapFile is not disturbed. The NamedDataMapFile's monitor is held for the duration
+	 * so that no writes interleave with the verification.</p>
+	 * 
+	 * <p>Segments written before checksums were introduced are skipped.</p>
+	 * 
+	 * @return the block indices of all data segments that failed validation, in ascending order
+	 */
+	public static <Name, Data> List<Integer> verifyChecksums(NamedDataMapFile<Name, Data> ndmf, ExecutorService executor) throws IOException {
+		synchronized (ndmf) {
+			final List<Integer> blocks = new ArrayList<>(ndmf.debugGetStoredNames().values());
+			Collections.sort(blocks);
+			
+			final FileChannel channel = ndmf.getChannel();
+			final List<Future<List<Integer>>> futures = new ArrayList<>();
+			for (int start = 0; start < blocks.size(); start += CHECKSUM_BATCH_SIZE) {
+				final List<Integer> batch = blocks.subList(start, Math.min(start + CHECKSUM_BATCH_SIZE, blocks.size()));
+				futures.add(executor.submit(() -> {
+					final List<Integer> failed = new ArrayList<>();
+					for (int block : batch) {
+						if (!verifyChecksum(ndmf, channel, block)) failed.add(block);
+					}
+					return failed;
+				}));
+			}
+			
+			final List<Integer> failed = new ArrayList<>();
+			for (Future<List<Integer>> future : futures) {
+				try {
+					failed.addAll(future.get());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while verifying checksums", e);
+				} catch (ExecutionException e) {
+					throw new IOException("Failed to verify checksums", e.getCause());
+				}
+			}
+			return failed;
+		}
+	}
+	
+	private static boolean verifyChecksum(NamedDataMapFile<?, ?> ndmf, FileChannel channel, int block) throws IOException {
+		final long position = ndmf.blockOffset(block);
+		final int headerSize = ndmf.SIZE_SEGMENT_HEADER + ndmf.SIZE_DATA_HEADER + ndmf.SIZE_CHECKSUM;
+		
+		final ByteBuffer header = ByteBuffer.allocate(headerSize);
+		if (!readFully(channel, header, position)) return false;
+		header.flip();
+		
+		final int size = header.getInt();
+		final byte dataHeader = header.get();
+		if ((dataHeader & NamedDataMapFile.DATA_FLAG_CHECKSUM) == 0) return true;
+		if (size < headerSize) return false;
+		final int expected = header.getInt();
+		
+		final ByteBuffer body = ByteBuffer.allocate(size - headerSize);
+		if (!readFully(channel, body, position + headerSize)) return false;
+		return ndmf.checksum(body.array()) == expected;
+	}
+	
+	private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			final int read = channel.read(buffer, position + buffer.position());
+			if (read < 0) return false;
+		}
+		return true;
+	}
+
 	public static <Name, Data> boolean verifyFormat(NamedDataMapFile<Name, Data> ndmf, boolean verbose) throws IOException {
 		System.out.println("----- VERIFYING FORMAT -----");
 		
@@ -31,89 +113,111 @@ public class NDMFVerifier {
 		Map<Integer, Int2D> dataSegments = new TreeMap<>();
 		int numDataBlocks = 0;
 
-		Integer blockOn = 0, previousBlock = null;
-		while (blockOn != null) {
-
-			final long offset = ndmf.blockOffset(blockOn);
-			if (offset >= ndmf.getFileLength()) {
-				String error = "Unexpected EOF! Expected block "+blockOn+" to exist\n"
-						+ "  Index block "+indexSegments.get(highestExpected)+" links to next block at "+highestExpected;
-				String previousError = blockErrors.get(blockOn);
-				error = (previousError == null) ? error : previousError+"\n"+error; 
-				blockErrors.put(blockOn, error);
-				break;
-			}
-			
-			try {
-				ndmf.seekBlock(blockOn, 0);
-			} catch (IOException e) {
-				throw new IOException("Failed to seek to block "+blockOn+". Linked from index block "+previousBlock, e);
-			}
-			int size = ndmf.readSegmentHeader();
-			
-			if (size < 0) {
-				String error = "Invalid Size! Block "+blockOn+" has a size of "+size+"!";
-				String previousError = blockErrors.get(blockOn);
-				error = (previousError == null) ? error : previousError+"\n"+error; 
-				blockErrors.put(blockOn, error);
-				break;
+		// Index chains to walk. A linked index is a single chain starting at block 0,
+		// while a hashed index has one chain per bucket after its header in block 0.
+		Deque<Integer> indexChains = new ArrayDeque<>();
+		if (HashIndex.isHashIndex(ndmf)) {
+			ndmf.seekBlock(0, ndmf.SIZE_SEGMENT_HEADER + 4);
+			final int numBuckets = ndmf.readBlockID();
+			final int firstBucket = ndmf.readBlockID();
+			blockMessages.put(0, "Block  0: Hashed index header. "+numBuckets+" buckets starting at block "+firstBucket);
+			numIndexBlocks++;
+			for (int bucket = 0; bucket < numBuckets; bucket++) {
+				indexSegments.put(firstBucket + bucket, 0);
+				indexChains.add(firstBucket + bucket);
 			}
-			if (size == 0) {
-				String error = "Missing Block! Block "+blockOn+" has a size of 0, but is supposed to be an index block!\n"
-						+ "  Index block "+previousBlock+" links to next block at "+blockOn;
-				String previousError = blockErrors.get(blockOn);
-				error = (previousError == null) ? error : previousError+"\n"+error; 
-				blockErrors.put(blockOn, error);
-				break;
-			}
-			
-			Integer link = null;
-			int numSlots = (size - ndmf.SIZE_SEGMENT_HEADER) / ndmf.SIZE_INDEX_ENTRY;
-			int numUsed = 0, numEmpty = 0;
-			for (int slot = 0; slot < numSlots; slot++) {
-				int blockReference = ndmf.readBlockID();
-				ndmf.skipName();
+			highestExpected = firstBucket + numBuckets - 1;
+		} else {
+			indexChains.add(0);
+		}
+		
+		Integer blockOn = null, previousBlock = null;
+		while (!indexChains.isEmpty()) {
+			blockOn = indexChains.poll();
+			previousBlock = null;
+			while (blockOn != null) {
+
+				final long offset = ndmf.blockOffset(blockOn);
+				if (offset >= ndmf.getFileLength()) {
+					String error = "Unexpected EOF! Expected block "+blockOn+" to exist\n"
+							+ "  Index block "+indexSegments.get(highestExpected)+" links to next block at "+highestExpected;
+					String previousError = blockErrors.get(blockOn);
+					error = (previousError == null) ? error : previousError+"\n"+error; 
+					blockErrors.put(blockOn, error);
+					break;
+				}
 				
-				if (blockReference == 0) {
-					numEmpty++;
-					continue;
+				try {
+					ndmf.seekBlock(blockOn, 0);
+				} catch (IOException e) {
+					throw new IOException("Failed to seek to block "+blockOn+". Linked from index block "+previousBlock, e);
 				}
+				int size = ndmf.readSegmentHeader();
 				
-				if (blockReference < 0) {
-					if (slot == ndmf.MAX_INDEX_ENTRY_SLOTS-1) {
-						highestExpected = Math.max(highestExpected, blockReference);
-						link = -blockReference;
-						indexSegments.put(link, blockOn);
-					} else {
-						String error = "Bad Index Entry! Block "+blockOn+" slot "+slot+" has a negative reference ("+blockReference+") but is not the last slot!";
-						String previousError = blockErrors.get(blockOn);
-						error = (previousError == null) ? error : previousError+"\n"+error; 
-						blockErrors.put(blockOn, error);
+				if (size < 0) {
+					String error = "Invalid Size! Block "+blockOn+" has a size of "+size+"!";
+					String previousError = blockErrors.get(blockOn);
+					error = (previousError == null) ? error : previousError+"\n"+error; 
+					blockErrors.put(blockOn, error);
+					break;
+				}
+				if (size == 0) {
+					String error = "Missing Block! Block "+blockOn+" has a size of 0, but is supposed to be an index block!\n"
+							+ "  Index block "+previousBlock+" links to next block at "+blockOn;
+					String previousError = blockErrors.get(blockOn);
+					error = (previousError == null) ? error : previousError+"\n"+error; 
+					blockErrors.put(blockOn, error);
+					break;
+				}
+				
+				Integer link = null;
+				int numSlots = (size - ndmf.SIZE_SEGMENT_HEADER) / ndmf.SIZE_INDEX_ENTRY;
+				int numUsed = 0, numEmpty = 0;
+				for (int slot = 0; slot < numSlots; slot++) {
+					int blockReference = ndmf.readBlockID();
+					ndmf.skipName();
+					
+					if (blockReference == 0) {
+						numEmpty++;
+						continue;
 					}
-					continue;
+					
+					if (blockReference < 0) {
+						if (slot == ndmf.MAX_INDEX_ENTRY_SLOTS-1) {
+							highestExpected = Math.max(highestExpected, -blockReference);
+							link = -blockReference;
+							indexSegments.put(link, blockOn);
+						} else {
+							String error = "Bad Index Entry! Block "+blockOn+" slot "+slot+" has a negative reference ("+blockReference+") but is not the last slot!";
+							String previousError = blockErrors.get(blockOn);
+							error = (previousError == null) ? error : previousError+"\n"+error; 
+							blockErrors.put(blockOn, error);
+						}
+						continue;
+					}
+					
+					numUsed++;
+					dataSegments.put(blockReference, new Int2D(blockOn, slot));
+					highestExpected = Math.max(highestExpected, blockReference);
 				}
 				
-				numUsed++;
-				dataSegments.put(blockReference, new Int2D(blockOn, slot));
-				highestExpected = Math.max(highestExpected, blockReference);
-			}
-			
-			int numBlocks = ndmf.numBlocks(size);
-			String description;
-			if (numBlocks == 1) {
-				description = "Block  "+blockOn+": Index block. "+numSlots+" entries: "+numUsed+" used, "+numEmpty+" empty";
-				if (link != null) description += ", link="+link;
-				description += ". Next block: "+(blockOn+numBlocks);
-			} else {
-				description = "Blocks "+blockOn+"-"+(blockOn+numBlocks-1)+": Index block. "+numSlots+" entries: "+numUsed+" used, "+numEmpty+" empty";
-				if (link != null) description += ", link="+link;
-				description += ". Next block: "+(blockOn+numBlocks);
+				int numBlocks = ndmf.numBlocks(size);
+				String description;
+				if (numBlocks == 1) {
+					description = "Block  "+blockOn+": Index block. "+numSlots+" entries: "+numUsed+" used, "+numEmpty+" empty";
+					if (link != null) description += ", link="+link;
+					description += ". Next block: "+(blockOn+numBlocks);
+				} else {
+					description = "Blocks "+blockOn+"-"+(blockOn+numBlocks-1)+": Index block. "+numSlots+" entries: "+numUsed+" used, "+numEmpty+" empty";
+					if (link != null) description += ", link="+link;
+					description += ". Next block: "+(blockOn+numBlocks);
+				}
+				blockMessages.put(blockOn, description);
+				
+				numIndexBlocks += numBlocks;
+				previousBlock = blockOn;
+				blockOn = link;
 			}
-			blockMessages.put(blockOn, description);
-			
-			numIndexBlocks += numBlocks;
-			previousBlock = blockOn;
-			blockOn = link;
 		}
 		
 		int numDataSegments = 0;
@@ -7,19 +7,37 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.NavigableSet;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import com.gpergrossi.util.hash.XXHash32;
 import com.gpergrossi.util.io.IStreamHandler;
 import com.gpergrossi.util.io.IStreamHandlerFixedSize;
 import com.gpergrossi.util.io.MD5Hash;
+import com.gpergrossi.util.io.ndmf.NDMFMetrics.Operation;
 import com.gpergrossi.util.io.IStreamHandler.Reader;
 import com.gpergrossi.util.io.IStreamHandler.Writer;
 
@@ -66,7 +84,14 @@ import com.gpergrossi.util.io.IStreamHandler.Writer;
  * at the abs(offset) block index is the start of the next index segment. The first block (index 0) of the save 
  * file will always be the start of the first index segment.</p>
  * 
- * <p>The body of a 'data' segment is written directly by the Data IStreamHandler's Writer.<p>
+ * <p>The body of a 'data' segment starts with a one byte data header holding the {@link CompressionMethod} ID.
+ * If the {@link #DATA_FLAG_CHECKSUM} bit of the data header is set, it is followed by the XXHash32 checksum
+ * (SIZE_CHECKSUM bytes) of the compressed data, which is validated whenever the segment is read. The rest of
+ * the body is the compressed output of the Data IStreamHandler's Writer.<p>
+ * 
+ * <p>Data segments are copy-on-write: a new version of an entry is written to newly claimed blocks, then
+ * the index entry is switched to point at it. The blocks of the old version are only freed after the next
+ * {@link #sync()}, so a crash at any point leaves the index pointing at a complete copy of the entry.</p>
  * 
  * @param <Name> - This type parameter will be used as the key in a TreeMap. The class used for this type parameter 
  * 		should implement hashCode() and all objects intended to equal should return the same hashCode().
@@ -93,10 +118,26 @@ public class NamedDataMapFile<Name, Data> {
 	
 	protected final int SIZE_SEGMENT_HEADER = 4;
 	protected final int SIZE_DATA_HEADER = 1;
+	protected final int SIZE_CHECKSUM = 4;
+	protected static final byte DATA_FLAG_CHECKSUM = 0x40;
+	protected static final int CHECKSUM_SEED = 0x5EED;
 	protected final int SIZE_BLOCK_ID = 4;
 	protected final int BUFFER_SIZE = 8192;
+	protected static final int IO_THREADS = 2;
 	protected final int SIZE_INDEX_ENTRY;
 	protected final int MAX_INDEX_ENTRY_SLOTS;
+	
+	/**
+	 * Passed as the number of hash buckets to create files with the linked {@link IndexSegment} index.
+	 */
+	public static final int LINKED_INDEX = 0;
+	
+	/**
+	 * <b>INITIAL_HASH_BUCKETS</b> is the number of buckets a newly created file's {@link HashIndex}
+	 * starts with, or {@link #LINKED_INDEX} to create files with linked index segments. Existing
+	 * files are always opened with the index format they were created with.
+	 */
+	protected final int INITIAL_HASH_BUCKETS;
 
 	private byte[] buffer;
 	
@@ -108,15 +149,46 @@ public class NamedDataMapFile<Name, Data> {
 	private Map<Name, Integer> storedNames;
 	private Map<Name, DataSegment<Name, Data>> storedData;
 	private TreeSet<Integer> freeBlocks;
+	private boolean freeBlocksPending;	// The free block set is built on the first allocation or free after opening
+	private List<int[]> pendingFree;
 	
 	private RandomAccessFile randomAccessFile;
 	private boolean isOpen;
+	
+	private ExecutorService ioExecutor;
+	private boolean ownsIOExecutor;
+	private final Map<Name, CompletableFuture<Data>> pendingGets = new ConcurrentHashMap<>();
+	private final Map<Name, CompletableFuture<Data>> pendingPuts = new ConcurrentHashMap<>();
 
+	/**
+	 * If true, every write is followed by a sync barrier before the index is switched to the
+	 * newly written data. If false, writes are left to the OS and crash consistency is lost,
+	 * although checksums will still detect torn data segments on read.
+	 */
+	public boolean syncWrites = true;
+	
+	private volatile NDMFMetrics metrics = NDMFMetrics.NONE;
+	
+	/**
+	 * Orders (blockID, Name) pairs by block, so bulk operations visit the file front to back
+	 */
+	private static final Comparator<Entry<Integer, ?>> BY_BLOCK = (a, b) -> Integer.compare(a.getKey(), b.getKey());
+	
 	public boolean debug = false;
 	public int debugVerbosity = 1; // Currently goes up to 3
 	public boolean debugVerifyOnLoad = false;
 	
 	public NamedDataMapFile(IStreamHandlerFixedSize<Name> nameStreamHandler, IStreamHandler<Data> dataStreamHandler, int blockSize) {
+		this(nameStreamHandler, dataStreamHandler, blockSize, LINKED_INDEX);
+	}
+	
+	/**
+	 * @param hashBuckets - number of buckets for the on-disk {@link HashIndex} of newly created files,
+	 * 		or {@link #LINKED_INDEX} to use the linked index segments that are fully read at open time.
+	 */
+	public NamedDataMapFile(IStreamHandlerFixedSize<Name> nameStreamHandler, IStreamHandler<Data> dataStreamHandler, int blockSize, int hashBuckets) {
+		if (hashBuckets < 0) throw new IllegalArgumentException("Negative number of hash buckets!");
+		
 		this.nameReader = nameStreamHandler.getReader();
 		this.nameWriter = nameStreamHandler.getWriter();
 		this.dataReader = dataStreamHandler.getReader();
@@ -128,6 +200,7 @@ public class NamedDataMapFile<Name, Data> {
 		
 		this.SIZE_INDEX_ENTRY = (SIZE_NAME + SIZE_BLOCK_ID);
 		this.MAX_INDEX_ENTRY_SLOTS = (SIZE_INDEX_SEGMENT - SIZE_SEGMENT_HEADER) / SIZE_INDEX_ENTRY;
+		this.INITIAL_HASH_BUCKETS = hashBuckets;
 
 		this.buffer = new byte[BUFFER_SIZE];
 	}
@@ -136,6 +209,18 @@ public class NamedDataMapFile<Name, Data> {
 		return isOpen;
 	}
 	
+	/**
+	 * Sets the sink that receives instrumentation events from this file.
+	 * @param metrics - the sink, or null to stop reporting
+	 */
+	public void setMetrics(NDMFMetrics metrics) {
+		this.metrics = (metrics == null) ? NDMFMetrics.NONE : metrics;
+	}
+	
+	public NDMFMetrics getMetrics() {
+		return metrics;
+	}
+	
 	public synchronized void open(File file) throws IOException {
 		if (isOpen) throw new IllegalStateException("NamedDataMapFile is already open!");
 		
@@ -143,10 +228,11 @@ public class NamedDataMapFile<Name, Data> {
 			try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(file))) {
 				dos.writeInt(SIZE_BLOCK);
 			}
-			randomAccessFile = new RandomAccessFile(file, "rws");
+			randomAccessFile = new RandomAccessFile(file, "rw");
 			randomAccessFile.setLength(SIZE_BLOCK);
+			if (INITIAL_HASH_BUCKETS != LINKED_INDEX) HashIndex.create(this, INITIAL_HASH_BUCKETS);
 		} else {
-			randomAccessFile = new RandomAccessFile(file, "rws");
+			randomAccessFile = new RandomAccessFile(file, "rw");
 		}
 		load();
 		this.isOpen = true;
@@ -158,10 +244,29 @@ public class NamedDataMapFile<Name, Data> {
 			if (!success) throw new IOException("Bad format!");
 		}
 		
-		IndexSegment<Name, Data> indexSegment = new IndexSegment<>(this, 0);
-		indexSegment.readIndex();
+		if (HashIndex.isHashIndex(this)) {
+			this.storedNames = HashIndex.open(this, HashIndex.DEFAULT_CACHE_PAGES);
+		} else {
+			IndexSegment<Name, Data> indexSegment = new IndexSegment<>(this, 0);
+			indexSegment.readIndex();
+			this.storedNames = indexSegment;
+		}
+		
+		// Scanning for free blocks reads every segment header, so it waits for the first write
+		this.freeBlocks = null;
+		this.freeBlocksPending = true;
 		
-		this.storedNames = indexSegment;
+		this.storedData = new HashMap<>();
+		this.pendingFree = new ArrayList<>();
+	}
+	
+	/**
+	 * Builds the free block set by walking the segment headers of the whole file,
+	 * if that has not been done since the file was opened.
+	 */
+	private void ensureFreeBlocks() throws IOException {
+		if (!freeBlocksPending) return;
+		freeBlocksPending = false;
 		
 		this.freeBlocks = new TreeSet<>();
 		int block = 0;
@@ -181,28 +286,65 @@ public class NamedDataMapFile<Name, Data> {
 				throw new RuntimeException("Invalid block size: "+size);
 			}
 		}
-		
-		this.storedData = new HashMap<>();
 	}
 	
-	public synchronized void close() throws IOException {
+	/**
+	 * Closes the file. Writes queued by {@link #putAsync} are completed first. Any asynchronous
+	 * operation that has not run by then is completed exceptionally and will not touch the file.
+	 */
+	public void close() throws IOException {
+		// Queued writes need this file's monitor, so wait for them without holding it
+		for (CompletableFuture<Data> put : new ArrayList<>(pendingPuts.values())) {
+			try {
+				put.join();
+			} catch (RuntimeException e) {
+				// Already reported through the future returned by putAsync
+			}
+		}
+		internalClose();
+	}
+	
+	private synchronized void internalClose() throws IOException {
+		if (ioExecutor != null && ownsIOExecutor) {
+			ioExecutor.shutdown();
+			ioExecutor = null;
+		}
+		failPending(pendingGets);
+		failPending(pendingPuts);
+		if (isOpen) {
+			if (storedNames instanceof HashIndex) ((HashIndex<?, ?>) storedNames).flush();
+			sync();
+		}
 		this.storedNames = null;
 		this.storedData = null;
 		this.freeBlocks = null;
+		this.freeBlocksPending = false;
+		this.pendingFree = null;
 		if (randomAccessFile != null) randomAccessFile.close();
 		randomAccessFile = null;
 		this.isOpen = false;
 	}
 
+	private void failPending(Map<Name, CompletableFuture<Data>> pending) {
+		for (CompletableFuture<Data> future : pending.values()) {
+			future.completeExceptionally(new IllegalStateException("NamedDataMapFile was closed before the operation ran"));
+		}
+		pending.clear();
+	}
+
 	private synchronized DataSegment<Name, Data> internalGetDataSegment(Name name, boolean readDataBody) {		
 		DataSegment<Name, Data> stored = storedData.get(name);
-		if (stored != null) return stored;
+		if (stored != null) {
+			if (readDataBody) metrics.cacheHit();
+			return stored;
+		}
 	
 		Integer blockID = storedNames.get(name);
 		if (blockID == null) return null;
 		
 		DataSegment<Name, Data> newSeg = new DataSegment<>(this, blockID);
 		if (readDataBody) {
+			metrics.cacheMiss();
 			newSeg.readData(); // Read full data body
 			storedData.put(name, newSeg);
 		} else {
@@ -222,6 +364,7 @@ public class NamedDataMapFile<Name, Data> {
 			seg = new DataSegment<>(this, Segment.UNALLOCATED);
 			seg.dataObject = data;
 			seg.writeData(); // Will assign a new block ID
+			writeBarrier();
 			storedNames.put(name, seg.blockIDStart);
 			storedData.put(name, seg);
 			return null;
@@ -230,16 +373,18 @@ public class NamedDataMapFile<Name, Data> {
 		Data oldData = seg.dataObject;
 
 		if (data == null) {
-			// Remove existing
-			seg.free();
+			// Remove existing: unlink before the blocks can be reused
 			storedNames.remove(name);
 			storedData.remove(name);
+			freeAfterSync(seg.blockIDStart, seg.size);
 		} else {
-			// Edit existing
+			// Edit existing: the new copy is complete before the index points to it
 			seg.dataObject = data;
 			seg.writeData();
+			writeBarrier();
 			storedNames.put(name, seg.blockIDStart);
 			storedData.put(name, seg);
+			freeAfterSync(seg.previousBlockIDStart, seg.previousSize);
 		}
 		
 		if (returnOldValue)	return oldData;
@@ -247,24 +392,312 @@ public class NamedDataMapFile<Name, Data> {
 	}
 	
 	public boolean has(Name name) {
+		final long start = System.nanoTime();
 		DataSegment<Name, Data> seg = internalGetDataSegment(name, false);
+		metrics.operation(Operation.HAS, System.nanoTime() - start);
 		return seg != null;
 	}
 	
 	public Data get(Name name) {
+		final long start = System.nanoTime();
 		DataSegment<Name, Data> seg = internalGetDataSegment(name, true);
+		metrics.operation(Operation.GET, System.nanoTime() - start);
 		if (seg == null) return null;
 		return seg.dataObject;
 	}
 	
 	public Data put(Name name, Data data) {
-		return internalPut(name, data, true);
+		final long start = System.nanoTime();
+		final Data old = internalPut(name, data, true);
+		metrics.operation(Operation.PUT, System.nanoTime() - start);
+		return old;
 	}
 	
 	public void set(Name name, Data data) {
+		final long start = System.nanoTime();
 		internalPut(name, data, false);
+		metrics.operation(Operation.PUT, System.nanoTime() - start);
+	}
+	
+	/**
+	 * <p>Reads every named entry in {@link names}. Entries that are not already cached are
+	 * read in order of their block index, so the file is traversed front to back instead of
+	 * seeking back and forth once per name.</p>
+	 * <p>Names that are not stored in this file are absent from the returned map.</p>
+	 */
+	public Map<Name, Data> getAll(Collection<Name> names) {
+		final long start = System.nanoTime();
+		final Map<Name, Data> results = internalGetAll(names);
+		metrics.operation(Operation.GET_ALL, System.nanoTime() - start);
+		return results;
 	}
 	
+	private synchronized Map<Name, Data> internalGetAll(Collection<Name> names) {
+		final Map<Name, Data> results = new HashMap<>(names.size());
+		final List<Entry<Integer, Name>> toRead = new ArrayList<>();
+		
+		for (Name name : names) {
+			final DataSegment<Name, Data> cached = storedData.get(name);
+			if (cached != null) {
+				metrics.cacheHit();
+				results.put(name, cached.dataObject);
+				continue;
+			}
+			
+			final Integer blockID = storedNames.get(name);
+			if (blockID != null) toRead.add(new SimpleImmutableEntry<>(blockID, name));
+		}
+		
+		Collections.sort(toRead, BY_BLOCK);
+		for (Entry<Integer, Name> entry : toRead) {
+			final DataSegment<Name, Data> seg = internalGetDataSegment(entry.getValue(), true);
+			results.put(entry.getValue(), seg.dataObject);
+		}
+		return results;
+	}
+	
+	/**
+	 * <p>Writes every entry in {@link entries}. Existing entries are rewritten in order of their
+	 * current block index and new entries are appended afterwards, keeping the writes as sequential
+	 * as the current layout allows. A null value removes the entry, as with {@link #set}.</p>
+	 * <p>All new copies are written before a single sync barrier, after which the index is switched
+	 * to point at them.</p>
+	 */
+	public void putAll(Map<Name, Data> entries) {
+		final long start = System.nanoTime();
+		internalPutAll(entries);
+		metrics.operation(Operation.PUT_ALL, System.nanoTime() - start);
+	}
+	
+	private synchronized void internalPutAll(Map<Name, Data> entries) {
+		final List<Entry<Integer, Name>> existing = new ArrayList<>();
+		final List<Name> created = new ArrayList<>();
+		
+		for (Name name : entries.keySet()) {
+			final Integer blockID = storedNames.get(name);
+			if (blockID != null) existing.add(new SimpleImmutableEntry<>(blockID, name));
+			else created.add(name);
+		}
+		
+		Collections.sort(existing, BY_BLOCK);
+		final List<Name> ordered = new ArrayList<>(entries.size());
+		for (Entry<Integer, Name> entry : existing) ordered.add(entry.getValue());
+		ordered.addAll(created);
+		
+		// Write every new copy first, so that a single sync covers the whole batch
+		final List<DataSegment<Name, Data>> written = new ArrayList<>(ordered.size());
+		final List<Name> writtenNames = new ArrayList<>(ordered.size());
+		for (Name name : ordered) {
+			final Data data = entries.get(name);
+			DataSegment<Name, Data> seg = internalGetDataSegment(name, false);
+			if (seg == null && data == null) continue;
+			
+			if (data == null) {
+				storedNames.remove(name);
+				storedData.remove(name);
+				freeAfterSync(seg.blockIDStart, seg.size);
+				continue;
+			}
+			
+			if (seg == null) seg = new DataSegment<>(this, Segment.UNALLOCATED);
+			seg.dataObject = data;
+			seg.writeData();
+			written.add(seg);
+			writtenNames.add(name);
+		}
+		writeBarrier();
+		
+		for (int i = 0; i < written.size(); i++) {
+			final DataSegment<Name, Data> seg = written.get(i);
+			storedNames.put(writtenNames.get(i), seg.blockIDStart);
+			storedData.put(writtenNames.get(i), seg);
+			freeAfterSync(seg.previousBlockIDStart, seg.previousSize);
+		}
+	}
+	
+	/**
+	 * Reads the given names into the data cache on a background thread, so that a later 
+	 * {@link #get} or {@link #getAll} for the same names does not wait on the disk.
+	 * @return a future that completes once all names have been read
+	 */
+	public synchronized Future<?> prefetch(Collection<Name> names) {
+		if (!isOpen) throw new IllegalStateException("NamedDataMapFile is not open!");
+		
+		final List<Name> copy = new ArrayList<>(names);
+		return getIOExecutor().submit(() -> {
+			synchronized (NamedDataMapFile.this) {
+				if (!isOpen) return;
+				getAll(copy);
+			}
+		});
+	}
+	
+	/**
+	 * Sets the executor used by {@link #getAsync}, {@link #putAsync} and {@link #prefetch}.
+	 * An executor provided here is not shut down when this file is closed. If no executor 
+	 * is set, a pool of {@link #IO_THREADS} daemon threads is created on first use.
+	 */
+	public synchronized void setIOExecutor(ExecutorService executor) {
+		if (ioExecutor != null && ownsIOExecutor) ioExecutor.shutdown();
+		this.ioExecutor = executor;
+		this.ownsIOExecutor = false;
+	}
+	
+	protected synchronized ExecutorService getIOExecutor() {
+		if (ioExecutor == null) {
+			ioExecutor = newIOExecutor(IO_THREADS);
+			ownsIOExecutor = true;
+		}
+		return ioExecutor;
+	}
+	
+	/**
+	 * Creates a pool of daemon I/O threads
+	 */
+	static ExecutorService newIOExecutor(int numThreads) {
+		return Executors.newFixedThreadPool(numThreads, runnable -> {
+			final Thread thread = new Thread(runnable, "NamedDataMapFile I/O");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	/**
+	 * <p>Reads the named entry on the I/O executor, so the calling thread does not wait on the disk.</p>
+	 * <p>Concurrent calls for the same name share a single read. If a {@link #putAsync} for the name 
+	 * is still in flight, the read is ordered after it and sees the new data.</p>
+	 */
+	public CompletableFuture<Data> getAsync(Name name) {
+		final CompletableFuture<Data> pendingPut = pendingPuts.get(name);
+		if (pendingPut != null) return pendingPut;
+		
+		final CompletableFuture<Data> future = new CompletableFuture<>();
+		final CompletableFuture<Data> existing = pendingGets.putIfAbsent(name, future);
+		if (existing != null) return existing;
+		
+		try {
+			getIOExecutor().execute(() -> {
+				if (future.isDone()) return; // Failed by close()
+				try {
+					future.complete(get(name));
+				} catch (Throwable t) {
+					future.completeExceptionally(t);
+				} finally {
+					pendingGets.remove(name, future);
+				}
+			});
+		} catch (RuntimeException e) {
+			pendingGets.remove(name, future);
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+	
+	/**
+	 * <p>Writes the named entry on the I/O executor. A null value removes the entry, as with {@link #set}.</p>
+	 * <p>Writes to the same name are applied in the order they were submitted. The returned future 
+	 * completes with the data that was written once it has reached the file.</p>
+	 */
+	public CompletableFuture<Data> putAsync(Name name, Data data) {
+		final CompletableFuture<Data> future = new CompletableFuture<>();
+		final CompletableFuture<Data> previous = pendingPuts.put(name, future);
+		pendingGets.remove(name); // Later reads must not join a read of the old data
+		
+		final Runnable write = () -> {
+			if (future.isDone()) return; // Failed by close()
+			try {
+				set(name, data);
+				future.complete(data);
+			} catch (Throwable t) {
+				future.completeExceptionally(t);
+			} finally {
+				pendingPuts.remove(name, future);
+			}
+		};
+		
+		try {
+			final ExecutorService executor = getIOExecutor();
+			if (previous == null) executor.execute(write);
+			else previous.whenCompleteAsync((result, error) -> write.run(), executor);
+		} catch (RuntimeException e) {
+			pendingPuts.remove(name, future);
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+	
+	/**
+	 * Evicts the given name from the data cache without touching the disk.
+	 */
+	public synchronized void uncache(Name name) {
+		if (storedData != null) storedData.remove(name);
+	}
+	
+	/**
+	 * Forces all writes to the disk and then frees the blocks of any data segments
+	 * that were replaced or removed since the last sync.
+	 */
+	public synchronized void sync() throws IOException {
+		final long start = System.nanoTime();
+		randomAccessFile.getFD().sync();
+		final long nanos = System.nanoTime() - start;
+		metrics.sync(nanos);
+		metrics.operation(Operation.SYNC, nanos);
+		releasePendingFree();
+	}
+	
+	/**
+	 * Syncs the file if {@link #syncWrites} is set, so that everything written so far is on the
+	 * disk before anything that links to it is written
+	 */
+	void writeBarrier() {
+		if (!syncWrites) return;
+		try {
+			sync();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Marks the blocks of an unlinked segment to be freed. Freeing is delayed until the
+	 * unlinking index write has been synced, so that the blocks cannot be reused (and the
+	 * old data overwritten) while a crash could still revert the index to point at them.
+	 */
+	private void freeAfterSync(int blockIDStart, int size) {
+		if (blockIDStart == Segment.UNALLOCATED || blockIDStart <= 0) return;
+		freeBlocksAfterSync(blockIDStart, blockIDStart + numBlocks(size) - 1);
+	}
+	
+	/**
+	 * Marks the blocks from start to end (inclusive) to be freed after the next sync, see freeAfterSync()
+	 */
+	void freeBlocksAfterSync(int startBlock, int endBlock) {
+		pendingFree.add(new int[] { startBlock, endBlock });
+		if (!syncWrites) {
+			try {
+				releasePendingFree();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+	
+	private void releasePendingFree() throws IOException {
+		for (int[] range : pendingFree) {
+			markBlocksFree(range[0], range[1]);
+		}
+		pendingFree.clear();
+	}
+	
+	/**
+	 * @return the number of named entries stored in this file
+	 */
+	public synchronized int size() {
+		if (!isOpen) return 0;
+		return storedNames.size();
+	}
+
 	public Map<Name, Integer> debugGetStoredNames() {
 		return storedNames;
 	}
@@ -288,6 +721,7 @@ public class NamedDataMapFile<Name, Data> {
 		
 		// Regular seek
 		randomAccessFile.seek(pos);
+		metrics.seek();
 		return old;
 	}
 	
@@ -330,10 +764,22 @@ public class NamedDataMapFile<Name, Data> {
 	}
 	
 	protected void writeName(Name name) throws IOException {
+		byte[] bytes = getNameBytes(name);
+		randomAccessFile.write(bytes, 0, bytes.length);
+	}
+	
+	/**
+	 * Writes the name with the name stream handler and returns the written bytes.
+	 */
+	protected byte[] getNameBytes(Name name) {
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(SIZE_NAME);
-		nameWriter.write(baos, name);
+		try {
+			nameWriter.write(baos, name);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 		if (baos.size() > SIZE_NAME) throw new RuntimeException("nameWriter wrote name that is larger than SIZE_NAME! ("+name+" -> "+Arrays.toString(baos.toByteArray())+")");
-		randomAccessFile.write(baos.toByteArray(), 0, baos.size());
+		return baos.toByteArray();
 	}
 
 	protected void writeBlankName() throws IOException {
@@ -341,6 +787,16 @@ public class NamedDataMapFile<Name, Data> {
 			randomAccessFile.write(0);
 		}
 	}
+	
+	protected void writeZeros(int length) throws IOException {
+		fillArray(buffer, (byte) 0, Math.min(length, BUFFER_SIZE));
+		int written = 0;
+		while (written < length) {
+			final int writeSize = Math.min(BUFFER_SIZE, length - written);
+			randomAccessFile.write(buffer, 0, writeSize);
+			written += writeSize;
+		}
+	}
 
 	protected int readSegmentHeader() throws IOException {
 		return randomAccessFile.readInt();
@@ -368,11 +824,13 @@ public class NamedDataMapFile<Name, Data> {
 
 	protected byte[] getDataArray(Data data, CompressionMethod compression) throws IOException {
 		final ByteArrayOutputStream baos = new ByteArrayOutputStream(SIZE_BLOCK);
-		try (final BufferedOutputStream bos = new BufferedOutputStream(compression.getCompressionStream(baos))) {
+		final CountingOutputStream raw;
+		try (final BufferedOutputStream bos = new BufferedOutputStream(raw = new CountingOutputStream(compression.getCompressionStream(baos)))) {
 			dataWriter.write(bos, data);
 		}
 		
 		final byte[] bytes = baos.toByteArray();
+		metrics.dataWritten(bytes.length, (int) raw.count);
 		if (debug && debugVerbosity >= 2) {
 			final String md5 = MD5Hash.hash(bytes);
 			System.out.println("Wrote "+bytes.length+" bytes of data (MD5="+md5+")");
@@ -386,6 +844,10 @@ public class NamedDataMapFile<Name, Data> {
 	}
 
 	protected Data readData(int size, CompressionMethod compression) throws IOException {
+		return decodeData(readDataArray(size), compression);
+	}
+	
+	protected byte[] readDataArray(int size) throws IOException {
 		final ByteArrayOutputStream baos = new ByteArrayOutputStream(size);
 		
 		int copied = 0;
@@ -401,18 +863,73 @@ public class NamedDataMapFile<Name, Data> {
 			final String md5 = MD5Hash.hash(bytes);
 			System.out.println("Read "+bytes.length+" bytes of data (MD5="+md5+")");
 		}
-		
+		return bytes;
+	}
+	
+	protected Data decodeData(byte[] bytes, CompressionMethod compression) throws IOException {
 		final ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
-		final InputStream decompressed = compression.getDecompressionStream(bais);
+		final CountingInputStream decompressed = new CountingInputStream(compression.getDecompressionStream(bais));
 		final BufferedInputStream bis = new BufferedInputStream(decompressed);
 		
-		return dataReader.read(bis);
+		final Data data = dataReader.read(bis);
+		metrics.dataRead(bytes.length, (int) decompressed.count);
+		return data;
+	}
+	
+	private static class CountingOutputStream extends FilterOutputStream {
+		long count;
+		
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+	
+	private static class CountingInputStream extends FilterInputStream {
+		long count;
+		
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			final int b = in.read();
+			if (b >= 0) count++;
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			final int read = in.read(b, off, len);
+			if (read > 0) count += read;
+			return read;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			final long skipped = in.skip(n);
+			count += skipped;
+			return skipped;
+		}
 	}
 
 	protected void markBlocksFree(int startBlocksFreed, int endBlocksFreed) throws IOException {
 		if (debug) {
 			System.out.println("Freed blocks "+startBlocksFreed+"-"+endBlocksFreed);
 		}
+		ensureFreeBlocks();
 		
 		for (int block = startBlocksFreed; block <= endBlocksFreed; block++) {
 			seekBlock(block, 0);
@@ -433,6 +950,7 @@ public class NamedDataMapFile<Name, Data> {
 	 * @throws IOException 
 	 */
 	protected boolean tryClaim(int start, int end) throws IOException {
+		ensureFreeBlocks();
 		if (freeBlocks == null) {
 			grow(blockOffset(end) + SIZE_BLOCK);
 			if (debug && debugVerbosity >= 0) System.out.println("Claimed blocks "+start+"-"+end);
@@ -463,6 +981,10 @@ public class NamedDataMapFile<Name, Data> {
 		if (randomAccessFile.length() >= minSize) return;
 		randomAccessFile.setLength(minSize);
 	}
+	
+	protected void setLength(long length) throws IOException {
+		randomAccessFile.setLength(length);
+	}
 
 	/**
 	 * Searches for and returns the block index at which a new claim
@@ -472,6 +994,7 @@ public class NamedDataMapFile<Name, Data> {
 	 */
 	protected int getClaim(int blockCount) throws IOException {
 		if (debug && debugVerbosity >= 0) System.out.println("Asking for claim of "+blockCount+" blocks");
+		ensureFreeBlocks();
 		
 		if (freeBlocks == null) {
 			tryClaim(0, blockCount-1);
@@ -481,8 +1004,10 @@ public class NamedDataMapFile<Name, Data> {
 		// Find a range that's big enough
 		Iterator<Integer> iter = freeBlocks.iterator();
 		int rangeStart = 0, rangeLength = -1, expected = 0;
+		int searched = 0;
 		while (iter.hasNext()) {
 			final int freeBlock = iter.next();
+			searched++;
 			if (freeBlock == expected) {
 				rangeLength++;
 				expected++;
@@ -504,6 +1029,7 @@ public class NamedDataMapFile<Name, Data> {
 
 		boolean success = tryClaim(rangeStart, rangeStart+blockCount-1);
 		if (!success) throw new RuntimeException("Could not claim allocated region: "+rangeStart+"-"+(rangeStart+blockCount-1));
+		metrics.allocation(searched, blockCount);
 		return rangeStart;
 		
 	}
@@ -526,6 +1052,14 @@ public class NamedDataMapFile<Name, Data> {
 		}
 	}
 
+	protected int checksum(byte[] bytes) {
+		return XXHash32.hashBytes(CHECKSUM_SEED, bytes, 0, bytes.length);
+	}
+	
+	protected FileChannel getChannel() {
+		return randomAccessFile.getChannel();
+	}
+	
 	public long getFileLength() throws IOException {
 		return randomAccessFile.length();
 	}
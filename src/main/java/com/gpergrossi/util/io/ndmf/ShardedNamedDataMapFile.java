@@ -0,0 +1,370 @@
+package com.gpergrossi.util.io.ndmf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.gpergrossi.util.hash.XXHash32;
+import com.gpergrossi.util.io.IStreamHandler;
+import com.gpergrossi.util.io.IStreamHandlerFixedSize;
+import com.gpergrossi.util.io.IStreamHandler.Writer;
+
+/**
+ * <p>A ShardedNamedDataMapFile spreads its entries over several independent {@link NamedDataMapFile}s
+ * (shards) that live side by side in one directory. Every Name is written with the name stream handler
+ * and hashed with {@link XXHash32}; the hash picks the shard that owns the Name. Because each shard has
+ * its own file and its own monitor, operations on different shards never wait for one another.</p>
+ *
+ * <p>The single-entry API ({@link #get}, {@link #put}, {@link #has}, {@link #set}) mirrors the one offered
+ * by NamedDataMapFile. The bulk methods {@link #getAll} and {@link #putAll} group their requests by shard
+ * and submit one task per shard to an {@link ExecutorService}, where each shard services its share with
+ * its own block-ordered {@link NamedDataMapFile#getAll} or {@link NamedDataMapFile#putAll}. Disk throughput
+ * therefore scales with the number of shards.</p>
+ *
+ * <p>All shards share one I/O executor for {@link #getAsync}, {@link #putAsync} and prefetching. Unless one
+ * is provided with {@link #setIOExecutor}, a pool of {@link NamedDataMapFile#IO_THREADS} threads per shard
+ * (at most one per processor) is created when the store is opened and shut down when it is closed.</p>
+ *
+ * <p>The number of shards and the hash seed are part of the on-disk layout. They are written to a metadata
+ * file ("shards.meta") when the store is created and checked every time it is opened, so opening an existing
+ * directory with a different shard count fails instead of routing names to the wrong shard.</p>
+ *
+ * @param <Name> - see {@link NamedDataMapFile}
+ * @param <Data> - see {@link NamedDataMapFile}
+ */
+public class ShardedNamedDataMapFile<Name, Data> {
+
+	protected static final int HASH_SEED = 0x4E444D46; // "NDMF"
+	
+	protected static final int META_MAGIC = 0x53484E44; // "SHND"
+	protected static final int FORMAT_VERSION = 1;
+
+	protected final int NUM_SHARDS;
+	protected final int SIZE_NAME;
+
+	private final Writer<Name> nameWriter;
+	private final List<NamedDataMapFile<Name, Data>> shards;
+
+	private ExecutorService ioExecutor;
+	private boolean ownsIOExecutor;
+
+	private boolean isOpen;
+
+	public ShardedNamedDataMapFile(IStreamHandlerFixedSize<Name> nameStreamHandler, IStreamHandler<Data> dataStreamHandler, int blockSize, int numShards) {
+		this(nameStreamHandler, dataStreamHandler, blockSize, numShards, NamedDataMapFile.LINKED_INDEX);
+	}
+
+	/**
+	 * @param hashBuckets - number of {@link HashIndex} buckets per newly created shard file,
+	 * 		or {@link NamedDataMapFile#LINKED_INDEX} for linked index segments
+	 */
+	public ShardedNamedDataMapFile(IStreamHandlerFixedSize<Name> nameStreamHandler, IStreamHandler<Data> dataStreamHandler, int blockSize, int numShards, int hashBuckets) {
+		if (numShards < 1) throw new IllegalArgumentException("Must have at least one shard!");
+
+		this.NUM_SHARDS = numShards;
+		this.SIZE_NAME = nameStreamHandler.getMaxSize();
+		this.nameWriter = nameStreamHandler.getWriter();
+
+		this.shards = new ArrayList<>(numShards);
+		for (int i = 0; i < numShards; i++) {
+			shards.add(new NamedDataMapFile<>(nameStreamHandler, dataStreamHandler, blockSize, hashBuckets));
+		}
+	}
+
+	public boolean isOpen() {
+		return isOpen;
+	}
+
+	/**
+	 * Opens (or creates) one shard file per shard inside the given directory.
+	 * Shard files are named "shard-N.ndmf".
+	 * @param directory - directory containing the shard files, created if it does not exist
+	 * @throws IOException if the directory was created with a different shard count, hash seed or format
+	 */
+	public synchronized void open(File directory) throws IOException {
+		if (isOpen) throw new IllegalStateException("ShardedNamedDataMapFile is already open!");
+
+		if (!directory.exists() && !directory.mkdirs()) throw new IOException("Could not create directory "+directory);
+		if (!directory.isDirectory()) throw new IOException(directory+" is not a directory!");
+		checkMetadata(directory);
+
+		if (ioExecutor == null) {
+			final int numThreads = Math.min(NamedDataMapFile.IO_THREADS * NUM_SHARDS, Math.max(NamedDataMapFile.IO_THREADS, Runtime.getRuntime().availableProcessors()));
+			this.ioExecutor = NamedDataMapFile.newIOExecutor(numThreads);
+			this.ownsIOExecutor = true;
+		}
+		for (NamedDataMapFile<Name, Data> shard : shards) {
+			shard.setIOExecutor(ioExecutor);
+		}
+
+		try {
+			for (int i = 0; i < NUM_SHARDS; i++) {
+				shards.get(i).open(getShardFile(directory, i));
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		this.isOpen = true;
+	}
+
+	public synchronized void close() throws IOException {
+		try {
+			closeShards();
+		} finally {
+			if (ioExecutor != null && ownsIOExecutor) {
+				ioExecutor.shutdown();
+				ioExecutor = null;
+			}
+			this.isOpen = false;
+		}
+	}
+
+	/**
+	 * Sets the executor shared by all shards, see {@link NamedDataMapFile#setIOExecutor}. 
+	 * An executor provided here is not shut down when this store is closed.
+	 */
+	public synchronized void setIOExecutor(ExecutorService executor) {
+		if (ioExecutor != null && ownsIOExecutor) ioExecutor.shutdown();
+		this.ioExecutor = executor;
+		this.ownsIOExecutor = false;
+		for (NamedDataMapFile<Name, Data> shard : shards) {
+			shard.setIOExecutor(executor);
+		}
+	}
+
+	private void closeShards() throws IOException {
+		IOException failure = null;
+		for (NamedDataMapFile<Name, Data> shard : shards) {
+			try {
+				if (shard.isOpen()) shard.close();
+			} catch (IOException e) {
+				if (failure == null) failure = e;
+				else failure.addSuppressed(e);
+			}
+		}
+		if (failure != null) throw failure;
+	}
+
+	/**
+	 * Validates the directory's metadata file, or writes it if the directory has none. A directory
+	 * without metadata but with shard files is only accepted if it has exactly NUM_SHARDS of them.
+	 */
+	private void checkMetadata(File directory) throws IOException {
+		final File metaFile = getMetadataFile(directory);
+		if (metaFile.exists()) {
+			try (DataInputStream dis = new DataInputStream(new FileInputStream(metaFile))) {
+				final int magic = dis.readInt();
+				final int version = dis.readInt();
+				final int numShards = dis.readInt();
+				final int seed = dis.readInt();
+				if (magic != META_MAGIC) throw new IOException(metaFile+" is not a shard metadata file!");
+				if (version != FORMAT_VERSION) throw new IOException("Unsupported shard format version "+version+" in "+metaFile);
+				if (numShards != NUM_SHARDS) throw new IOException(directory+" has "+numShards+" shards, expected "+NUM_SHARDS);
+				if (seed != HASH_SEED) throw new IOException(directory+" uses hash seed "+Integer.toHexString(seed)+", expected "+Integer.toHexString(HASH_SEED));
+			}
+			return;
+		}
+		
+		int existingShards = 0;
+		while (getShardFile(directory, existingShards).exists()) existingShards++;
+		if (existingShards != 0 && existingShards != NUM_SHARDS) {
+			throw new IOException(directory+" has "+existingShards+" shard files, expected "+NUM_SHARDS);
+		}
+		
+		try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(metaFile))) {
+			dos.writeInt(META_MAGIC);
+			dos.writeInt(FORMAT_VERSION);
+			dos.writeInt(NUM_SHARDS);
+			dos.writeInt(HASH_SEED);
+		}
+	}
+
+	protected File getMetadataFile(File directory) {
+		return new File(directory, "shards.meta");
+	}
+
+	protected File getShardFile(File directory, int shardIndex) {
+		return new File(directory, "shard-"+shardIndex+".ndmf");
+	}
+
+	public int getNumShards() {
+		return NUM_SHARDS;
+	}
+
+	public NamedDataMapFile<Name, Data> getShard(int shardIndex) {
+		return shards.get(shardIndex);
+	}
+
+	/**
+	 * Sets the instrumentation sink of every shard. Passing a single {@link NDMFStatistics}
+	 * collects combined statistics for the whole store.
+	 */
+	public void setMetrics(NDMFMetrics metrics) {
+		for (NamedDataMapFile<Name, Data> shard : shards) {
+			shard.setMetrics(metrics);
+		}
+	}
+
+	/**
+	 * Returns the index of the shard that owns the given name.
+	 */
+	public int getShardIndex(Name name) {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(SIZE_NAME);
+		try {
+			nameWriter.write(baos, name);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		if (baos.size() > SIZE_NAME) throw new RuntimeException("nameWriter wrote name that is larger than SIZE_NAME! ("+name+")");
+
+		final byte[] bytes = baos.toByteArray();
+		final int hash = XXHash32.hashBytes(HASH_SEED, bytes, 0, bytes.length);
+		return (int) ((hash & 0xFFFFFFFFL) % NUM_SHARDS);
+	}
+
+	protected NamedDataMapFile<Name, Data> shardFor(Name name) {
+		return shards.get(getShardIndex(name));
+	}
+
+	public boolean has(Name name) {
+		return shardFor(name).has(name);
+	}
+
+	public Data get(Name name) {
+		return shardFor(name).get(name);
+	}
+
+	public Data put(Name name, Data data) {
+		return shardFor(name).put(name, data);
+	}
+
+	public void set(Name name, Data data) {
+		shardFor(name).set(name, data);
+	}
+
+	/**
+	 * Reads the named entry on its shard's I/O executor. See {@link NamedDataMapFile#getAsync}.
+	 */
+	public CompletableFuture<Data> getAsync(Name name) {
+		return shardFor(name).getAsync(name);
+	}
+
+	/**
+	 * Writes the named entry on its shard's I/O executor. See {@link NamedDataMapFile#putAsync}.
+	 */
+	public CompletableFuture<Data> putAsync(Name name, Data data) {
+		return shardFor(name).putAsync(name, data);
+	}
+
+	/**
+	 * Reads all of the given names, one task per shard on the provided executor.
+	 * Names that are not stored are absent from the returned map.
+	 * @throws IOException if any shard failed to read
+	 */
+	public Map<Name, Data> getAll(Collection<Name> names, ExecutorService executor) throws IOException {
+		final List<List<Name>> byShard = new ArrayList<>(NUM_SHARDS);
+		for (int i = 0; i < NUM_SHARDS; i++) byShard.add(new ArrayList<>());
+		for (Name name : names) {
+			byShard.get(getShardIndex(name)).add(name);
+		}
+
+		final List<Future<Map<Name, Data>>> futures = new ArrayList<>(NUM_SHARDS);
+		for (int i = 0; i < NUM_SHARDS; i++) {
+			final List<Name> shardNames = byShard.get(i);
+			if (shardNames.isEmpty()) continue;
+
+			final NamedDataMapFile<Name, Data> shard = shards.get(i);
+			futures.add(executor.submit(() -> shard.getAll(shardNames)));
+		}
+
+		final Map<Name, Data> results = new HashMap<>(names.size());
+		for (Future<Map<Name, Data>> future : futures) {
+			results.putAll(await(future));
+		}
+		return results;
+	}
+
+	/**
+	 * Writes all of the given entries, one task per shard on the provided executor.
+	 * A null value removes the entry, as with {@link #set}.
+	 * @throws IOException if any shard failed to write
+	 */
+	public void putAll(Map<Name, Data> entries, ExecutorService executor) throws IOException {
+		final List<Map<Name, Data>> byShard = new ArrayList<>(NUM_SHARDS);
+		for (int i = 0; i < NUM_SHARDS; i++) byShard.add(new HashMap<>());
+		for (Entry<Name, Data> entry : entries.entrySet()) {
+			byShard.get(getShardIndex(entry.getKey())).put(entry.getKey(), entry.getValue());
+		}
+
+		final List<Future<?>> futures = new ArrayList<>(NUM_SHARDS);
+		for (int i = 0; i < NUM_SHARDS; i++) {
+			final Map<Name, Data> shardEntries = byShard.get(i);
+			if (shardEntries.isEmpty()) continue;
+
+			final NamedDataMapFile<Name, Data> shard = shards.get(i);
+			futures.add(executor.submit(() -> shard.putAll(shardEntries)));
+		}
+
+		for (Future<?> future : futures) {
+			await(future);
+		}
+	}
+
+	private static <T> T await(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for shard", e);
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * @return the number of entries stored in each shard, indexed by shard
+	 */
+	public int[] getShardEntryCounts() {
+		final int[] counts = new int[NUM_SHARDS];
+		for (int i = 0; i < NUM_SHARDS; i++) {
+			counts[i] = shards.get(i).size();
+		}
+		return counts;
+	}
+
+	/**
+	 * @return the length in bytes of each shard's file, indexed by shard
+	 */
+	public long[] getShardFileLengths() throws IOException {
+		final long[] lengths = new long[NUM_SHARDS];
+		for (int i = 0; i < NUM_SHARDS; i++) {
+			lengths[i] = shards.get(i).getFileLength();
+		}
+		return lengths;
+	}
+
+	public long getFileLength() throws IOException {
+		long total = 0;
+		for (long length : getShardFileLengths()) total += length;
+		return total;
+	}
+
+}
@@ -0,0 +1,108 @@
+package com.gpergrossi.util.math;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+import com.gpergrossi.util.geom.ranges.Int2DRange;
+import com.gpergrossi.util.math.func2d.Function2D;
+import com.gpergrossi.util.math.func3d.Function3D;
+
+/**
+ * <p>Samples large rasters in parallel on a {@link ForkJoinPool}. A 2D raster is cut into bands of 
+ * whole rows and a 3D raster into slabs of whole z layers. Each task samples its rows (or layers) one
+ * at a time with the function's bulk fill() path.</p>
+ * 
+ * <p>Every row is filled from its absolute origin, originY + y*step, which is the same arithmetic a 
+ * single fill() of the whole raster uses for that row. The output is therefore identical to a serial 
+ * fill for any pool and any band size. The function must be safe to call from several threads.</p>
+ */
+public class ParallelRasterizer {
+
+	public static final int DEFAULT_BAND_ROWS = 16;
+	public static final int DEFAULT_SLAB_LAYERS = 2;
+	
+	private final ForkJoinPool pool;
+	private final int bandRows;
+	private final int slabLayers;
+	
+	public ParallelRasterizer() {
+		this(ForkJoinPool.commonPool(), DEFAULT_BAND_ROWS, DEFAULT_SLAB_LAYERS);
+	}
+	
+	/**
+	 * @param pool - the pool that samples the bands
+	 * @param bandRows - number of rows sampled by one task of a 2D raster
+	 * @param slabLayers - number of z layers sampled by one task of a 3D raster
+	 */
+	public ParallelRasterizer(ForkJoinPool pool, int bandRows, int slabLayers) {
+		if (bandRows <= 0 || slabLayers <= 0) throw new IllegalArgumentException("Band sizes must be positive");
+		this.pool = pool;
+		this.bandRows = bandRows;
+		this.slabLayers = slabLayers;
+	}
+	
+	/**
+	 * Fills the raster so that out.get(x, y) = function.getValue(originX + (x-out.minX)*step, originY + (y-out.minY)*step), 
+	 * as {@link Function2D#fill(Int2DRange.Floats, double, double, double)} would.
+	 */
+	public void fill(Function2D function, Int2DRange.Floats out, double originX, double originY, double step) {
+		final int numBands = (out.height + bandRows - 1) / bandRows;
+		if (numBands == 0) return;
+		pool.invoke(new Bands(0, numBands, band -> {
+			final int startRow = band * bandRows;
+			final int endRow = Math.min(startRow + bandRows, out.height);
+			final Int2DRange.Floats row = new Int2DRange.Floats(out.minX, 0, out.maxX, 0);
+			for (int y = startRow; y < endRow; y++) {
+				function.fill(row, originX, originY + y*step, step);
+				System.arraycopy(row.data, 0, out.data, y * out.width, out.width);
+			}
+		}));
+	}
+	
+	/**
+	 * Fills out[(z*sizeX + x)*sizeY + y] = function.getValue(originX + x*step, originY + y*step, originZ + z*step), 
+	 * as {@link Function3D#fill(double[], int, int, int, double, double, double, double)} would.
+	 */
+	public void fill(Function3D function, double[] out, int sizeX, int sizeY, int sizeZ, double originX, double originY, double originZ, double step) {
+		final int numSlabs = (sizeZ + slabLayers - 1) / slabLayers;
+		if (numSlabs == 0) return;
+		final int layerSize = sizeX * sizeY;
+		pool.invoke(new Bands(0, numSlabs, slab -> {
+			final int startLayer = slab * slabLayers;
+			final int endLayer = Math.min(startLayer + slabLayers, sizeZ);
+			final double[] layer = new double[layerSize];
+			for (int z = startLayer; z < endLayer; z++) {
+				function.fill(layer, sizeX, sizeY, 1, originX, originY, originZ + z*step, step);
+				System.arraycopy(layer, 0, out, z * layerSize, layerSize);
+			}
+		}));
+	}
+	
+	/**
+	 * Splits a range of band indices in half until single bands remain
+	 */
+	private static final class Bands extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		final int start, end;
+		final IntConsumer body;
+		
+		Bands(int start, int end, IntConsumer body) {
+			this.start = start;
+			this.end = end;
+			this.body = body;
+		}
+		
+		@Override
+		protected void compute() {
+			if (end - start == 1) {
+				body.accept(start);
+				return;
+			}
+			final int mid = (start + end) >>> 1;
+			invokeAll(new Bands(start, mid, body), new Bands(mid, end, body));
+		}
+	}
+	
+}
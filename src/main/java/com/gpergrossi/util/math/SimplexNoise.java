@@ -1,5 +1,7 @@
 package com.gpergrossi.util.math;
 
+import java.util.Random;
+
 /**
  * A speed-improved simplex noise algorithm for 2D, 3D and 4D in Java. Version
  * 2012-03-09
@@ -7,39 +9,38 @@ package com.gpergrossi.util.math;
  * This code was placed in the public domain by its original author, Stefan
  * Gustavson. You may use it as you see fit, but attribution is appreciated.
  * 
+ * <p>Each instance owns a permutation table shuffled from its seed, so differently seeded instances
+ * are independent noise functions. Every instance is still zero at the vertices of the simplex lattice,
+ * so callers that add several instances together should offset each one's coordinates by a seeded
+ * fraction of the lattice. Gradients are stored as flat int arrays and the permutation tables hold
+ * pre-multiplied gradient offsets. The static noise() methods evaluate an instance using the classic table.</p>
+ * 
  * @author Stefan Gustavson (stegu@itn.liu.se)
  * @author Peter Eastman (peastman@drizzle.stanford.edu)
- * 
  */
-public abstract class SimplexNoise {
+public final class SimplexNoise {
 	
-	private static Grad grad3[] = { new Grad(1, 1, 0), new Grad(-1, 1, 0),
-			new Grad(1, -1, 0), new Grad(-1, -1, 0), new Grad(1, 0, 1),
-			new Grad(-1, 0, 1), new Grad(1, 0, -1), new Grad(-1, 0, -1),
-			new Grad(0, 1, 1), new Grad(0, -1, 1), new Grad(0, 1, -1),
-			new Grad(0, -1, -1) 
+	// Gradients to the midpoints of the edges of a cube, stored as (x, y, z) triples
+	private static final int GRAD3[] = {
+			1, 1, 0,	-1, 1, 0,	1, -1, 0,	-1, -1, 0,
+			1, 0, 1,	-1, 0, 1,	1, 0, -1,	-1, 0, -1,
+			0, 1, 1,	0, -1, 1,	0, 1, -1,	0, -1, -1
 	};
 
-	private static Grad grad4[] = { new Grad(0, 1, 1, 1),
-			new Grad(0, 1, 1, -1), new Grad(0, 1, -1, 1),
-			new Grad(0, 1, -1, -1), new Grad(0, -1, 1, 1),
-			new Grad(0, -1, 1, -1), new Grad(0, -1, -1, 1),
-			new Grad(0, -1, -1, -1), new Grad(1, 0, 1, 1),
-			new Grad(1, 0, 1, -1), new Grad(1, 0, -1, 1),
-			new Grad(1, 0, -1, -1), new Grad(-1, 0, 1, 1),
-			new Grad(-1, 0, 1, -1), new Grad(-1, 0, -1, 1),
-			new Grad(-1, 0, -1, -1), new Grad(1, 1, 0, 1),
-			new Grad(1, 1, 0, -1), new Grad(1, -1, 0, 1),
-			new Grad(1, -1, 0, -1), new Grad(-1, 1, 0, 1),
-			new Grad(-1, 1, 0, -1), new Grad(-1, -1, 0, 1),
-			new Grad(-1, -1, 0, -1), new Grad(1, 1, 1, 0),
-			new Grad(1, 1, -1, 0), new Grad(1, -1, 1, 0),
-			new Grad(1, -1, -1, 0), new Grad(-1, 1, 1, 0),
-			new Grad(-1, 1, -1, 0), new Grad(-1, -1, 1, 0),
-			new Grad(-1, -1, -1, 0) 
+	// Gradients to the midpoints of the edges of a hypercube, stored as (x, y, z, w) quadruples
+	private static final int GRAD4[] = {
+			0, 1, 1, 1,		0, 1, 1, -1,	0, 1, -1, 1,	0, 1, -1, -1,
+			0, -1, 1, 1,	0, -1, 1, -1,	0, -1, -1, 1,	0, -1, -1, -1,
+			1, 0, 1, 1,		1, 0, 1, -1,	1, 0, -1, 1,	1, 0, -1, -1,
+			-1, 0, 1, 1,	-1, 0, 1, -1,	-1, 0, -1, 1,	-1, 0, -1, -1,
+			1, 1, 0, 1,		1, 1, 0, -1,	1, -1, 0, 1,	1, -1, 0, -1,
+			-1, 1, 0, 1,	-1, 1, 0, -1,	-1, -1, 0, 1,	-1, -1, 0, -1,
+			1, 1, 1, 0,		1, 1, -1, 0,	1, -1, 1, 0,	1, -1, -1, 0,
+			-1, 1, 1, 0,	-1, 1, -1, 0,	-1, -1, 1, 0,	-1, -1, -1, 0
 	};
 
-	private static short p[] = { 151, 160, 137, 91, 90, 15, 131, 13, 201, 95,
+	// The classic permutation table, used by the static noise() methods
+	private static final short P[] = { 151, 160, 137, 91, 90, 15, 131, 13, 201, 95,
 			96, 53, 194, 233, 7, 225, 140, 36, 103, 30, 69, 142, 8, 99, 37,
 			240, 21, 10, 23, 190, 6, 148, 247, 120, 234, 75, 0, 26, 197, 62,
 			94, 252, 219, 203, 117, 35, 11, 32, 57, 177, 33, 88, 237, 149, 56,
@@ -59,13 +60,39 @@ public abstract class SimplexNoise {
 			114, 67, 29, 24, 72, 243, 141, 128, 195, 78, 66, 215, 61, 156, 180 
 	};
 	
+	private static final SimplexNoise DEFAULT = new SimplexNoise(P);
+	
 	// To remove the need for index wrapping, double the permutation table length
-	private static short perm[] = new short[512];
-	private static short permMod12[] = new short[512];
-	static {
+	private final int perm[] = new int[512];
+	private final int permGrad3[] = new int[512];	// Index of the first component of the 3D gradient
+	private final int permGrad4[] = new int[512];	// Index of the first component of the 4D gradient
+	
+	/**
+	 * Creates a simplex noise function whose permutation table is a shuffle of 0..255 derived from the seed
+	 */
+	public SimplexNoise(long seed) {
+		final short p[] = new short[256];
+		for (int i = 0; i < 256; i++) p[i] = (short) i;
+		
+		final Random random = new Random(seed);
+		for (int i = 255; i > 0; i--) {
+			final int j = random.nextInt(i+1);
+			final short swap = p[i];
+			p[i] = p[j];
+			p[j] = swap;
+		}
+		init(p);
+	}
+	
+	private SimplexNoise(short p[]) {
+		init(p);
+	}
+	
+	private void init(short p[]) {
 		for (int i = 0; i < 512; i++) {
 			perm[i] = p[i & 255];
-			permMod12[i] = (short) (perm[i] % 12);
+			permGrad3[i] = (perm[i] % 12) * 3;
+			permGrad4[i] = (perm[i] % 32) * 4;
 		}
 	}
 
@@ -76,22 +103,48 @@ public abstract class SimplexNoise {
 	private static final double unscewFactor3D = 1.0 / 6.0;
 	private static final double scewFactor4D = (Math.sqrt(5.0) - 1.0) / 4.0;
 	private static final double unscewFactor4D = (5.0 - Math.sqrt(5.0)) / 20.0;
+	private static final float unscewFactor2F = (float) unscewFactor2D;
+	private static final float unscewFactor3F = (float) unscewFactor3D;
 
 	private static int floor(double x) {
 		int xi = (int) x;
 		return x < xi ? xi - 1 : xi;
 	}
 
-	private static double dot(Grad g, double x, double y) {
-		return g.x * x + g.y * y;
+	private static double dot(int g, double x, double y) {
+		return GRAD3[g] * x + GRAD3[g+1] * y;
 	}
 
-	private static double dot(Grad g, double x, double y, double z) {
-		return g.x * x + g.y * y + g.z * z;
+	private static double dot(int g, double x, double y, double z) {
+		return GRAD3[g] * x + GRAD3[g+1] * y + GRAD3[g+2] * z;
 	}
 
-	private static double dot(Grad g, double x, double y, double z, double w) {
-		return g.x * x + g.y * y + g.z * z + g.w * w;
+	private static double dot4(int g, double x, double y, double z, double w) {
+		return GRAD4[g] * x + GRAD4[g+1] * y + GRAD4[g+2] * z + GRAD4[g+3] * w;
+	}
+
+	/**
+	 * Evaluates 2D simplex noise using the classic permutation table
+	 * @see #getValue(double, double)
+	 */
+	public static double noise(double x, double y) {
+		return DEFAULT.getValue(x, y);
+	}
+
+	/**
+	 * Evaluates 3D simplex noise using the classic permutation table
+	 * @see #getValue(double, double, double)
+	 */
+	public static double noise(double x, double y, double z) {
+		return DEFAULT.getValue(x, y, z);
+	}
+
+	/**
+	 * Evaluates 4D simplex noise using the classic permutation table
+	 * @see #getValue(double, double, double, double)
+	 */
+	public static double noise(double x, double y, double z, double w) {
+		return DEFAULT.getValue(x, y, z, w);
 	}
 
 	/**
@@ -100,7 +153,7 @@ public abstract class SimplexNoise {
 	 * @param y - coordinate in the noise (any double)
 	 * @return double - value of the noise at the coordinate specified [-1, 1]
 	 */
-	public static double noise(double x, double y) {
+	public double getValue(double x, double y) {
 		// Noise contributions from the three corners
 		double n0, n1, n2;
 		
@@ -144,9 +197,9 @@ public abstract class SimplexNoise {
 		// Work out the hashed gradient indices of the three simplex corners
 		int ii = i & 255;
 		int jj = j & 255;
-		int gi0 = permMod12[ii + perm[jj]];
-		int gi1 = permMod12[ii + i1 + perm[jj + j1]];
-		int gi2 = permMod12[ii + 1 + perm[jj + 1]];
+		int gi0 = permGrad3[ii + perm[jj]];
+		int gi1 = permGrad3[ii + i1 + perm[jj + j1]];
+		int gi2 = permGrad3[ii + 1 + perm[jj + 1]];
 		
 		// Calculate the contribution from the first corner
 		double t0 = 0.5 - x0 * x0 - y0 * y0;
@@ -154,7 +207,7 @@ public abstract class SimplexNoise {
 			n0 = 0.0;
 		} else {
 			t0 *= t0;
-			n0 = t0 * t0 * dot(grad3[gi0], x0, y0);
+			n0 = t0 * t0 * dot(gi0, x0, y0);
 		}
 		
 		// Calculate the contribution from the second corner
@@ -163,7 +216,7 @@ public abstract class SimplexNoise {
 			n1 = 0.0;
 		} else {
 			t1 *= t1;
-			n1 = t1 * t1 * dot(grad3[gi1], x1, y1);
+			n1 = t1 * t1 * dot(gi1, x1, y1);
 		}
 		
 		// Calculate the contribution from the third corner
@@ -172,7 +225,7 @@ public abstract class SimplexNoise {
 			n2 = 0.0;
 		else {
 			t2 *= t2;
-			n2 = t2 * t2 * dot(grad3[gi2], x2, y2);
+			n2 = t2 * t2 * dot(gi2, x2, y2);
 		}
 		
 		// Add contributions from each corner to get the final noise value.
@@ -180,6 +233,78 @@ public abstract class SimplexNoise {
 		return 70.0 * (n0 + n1 + n2);
 	}
 
+	/**
+	 * <p>Returns the value of the 2D simplex noise function at (x, y) and writes its analytic partial 
+	 * derivatives d/dx and d/dy into derivatives[0] and derivatives[1].</p>
+	 * 
+	 * <p>Each corner contributes t^4 * (g . d) where d is the offset from the corner and 
+	 * t = 0.5 - |d|^2, so its gradient is t^4 * g - 8 * t^3 * (g . d) * d.</p>
+	 */
+	public double getValue(double x, double y, double[] derivatives) {
+		// Skew the input space to determine which simplex cell we're in
+		double scew = (x + y) * scewFactor2D;
+		int i = floor(x + scew);
+		int j = floor(y + scew);
+		
+		// The x,y distances from the unskewed cell origin
+		double unscew = (i + j) * unscewFactor2D;
+		double x0 = x - (i - unscew);
+		double y0 = y - (j - unscew);
+		
+		// Offsets for the middle and last corners
+		int i1 = x0 > y0 ? 1 : 0;
+		int j1 = 1 - i1;
+		double x1 = x0 - i1 + unscewFactor2D; 
+		double y1 = y0 - j1 + unscewFactor2D;
+		double x2 = x0 - 1.0 + 2.0 * unscewFactor2D; 
+		double y2 = y0 - 1.0 + 2.0 * unscewFactor2D;
+		
+		int ii = i & 255;
+		int jj = j & 255;
+		int gi0 = permGrad3[ii + perm[jj]];
+		int gi1 = permGrad3[ii + i1 + perm[jj + j1]];
+		int gi2 = permGrad3[ii + 1 + perm[jj + 1]];
+		
+		double value = 0, dx = 0, dy = 0;
+		
+		double t0 = 0.5 - x0 * x0 - y0 * y0;
+		if (t0 > 0) {
+			double gd = dot(gi0, x0, y0);
+			double t02 = t0 * t0;
+			double t04 = t02 * t02;
+			double slope = -8.0 * t02 * t0 * gd;
+			value += t04 * gd;
+			dx += t04 * GRAD3[gi0] + slope * x0;
+			dy += t04 * GRAD3[gi0+1] + slope * y0;
+		}
+		
+		double t1 = 0.5 - x1 * x1 - y1 * y1;
+		if (t1 > 0) {
+			double gd = dot(gi1, x1, y1);
+			double t12 = t1 * t1;
+			double t14 = t12 * t12;
+			double slope = -8.0 * t12 * t1 * gd;
+			value += t14 * gd;
+			dx += t14 * GRAD3[gi1] + slope * x1;
+			dy += t14 * GRAD3[gi1+1] + slope * y1;
+		}
+		
+		double t2 = 0.5 - x2 * x2 - y2 * y2;
+		if (t2 > 0) {
+			double gd = dot(gi2, x2, y2);
+			double t22 = t2 * t2;
+			double t24 = t22 * t22;
+			double slope = -8.0 * t22 * t2 * gd;
+			value += t24 * gd;
+			dx += t24 * GRAD3[gi2] + slope * x2;
+			dy += t24 * GRAD3[gi2+1] + slope * y2;
+		}
+		
+		derivatives[0] = 70.0 * dx;
+		derivatives[1] = 70.0 * dy;
+		return 70.0 * value;
+	}
+
 	/**
 	 * This method returns the value of a 3D simplex noise function at (x, y, z).
 	 * @param x - coordinate in the noise (any double)
@@ -187,7 +312,7 @@ public abstract class SimplexNoise {
 	 * @param z - coordinate in the noise (any double)
 	 * @return double - value of the noise at the coordinate specified [-1, 1]
 	 */
-	public static double noise(double x, double y, double z) {
+	public double getValue(double x, double y, double z) {
 		// Noise contributions from the four corners
 		double n0, n1, n2, n3; 
 		
@@ -283,10 +408,10 @@ public abstract class SimplexNoise {
 		int ii = i & 255;
 		int jj = j & 255;
 		int kk = k & 255;
-		int gi0 = permMod12[ii + perm[jj + perm[kk]]];
-		int gi1 = permMod12[ii + i1 + perm[jj + j1 + perm[kk + k1]]];
-		int gi2 = permMod12[ii + i2 + perm[jj + j2 + perm[kk + k2]]];
-		int gi3 = permMod12[ii + 1 + perm[jj + 1 + perm[kk + 1]]];
+		int gi0 = permGrad3[ii + perm[jj + perm[kk]]];
+		int gi1 = permGrad3[ii + i1 + perm[jj + j1 + perm[kk + k1]]];
+		int gi2 = permGrad3[ii + i2 + perm[jj + j2 + perm[kk + k2]]];
+		int gi3 = permGrad3[ii + 1 + perm[jj + 1 + perm[kk + 1]]];
 		
 		// Calculate the contribution from the first corner
 		double t0 = 0.6 - x0 * x0 - y0 * y0 - z0 * z0;
@@ -294,7 +419,7 @@ public abstract class SimplexNoise {
 			n0 = 0.0;
 		} else {
 			t0 *= t0;
-			n0 = t0 * t0 * dot(grad3[gi0], x0, y0, z0);
+			n0 = t0 * t0 * dot(gi0, x0, y0, z0);
 		}
 		
 		// Calculate the contribution from the second corner
@@ -303,7 +428,7 @@ public abstract class SimplexNoise {
 			n1 = 0.0;
 		} else {
 			t1 *= t1;
-			n1 = t1 * t1 * dot(grad3[gi1], x1, y1, z1);
+			n1 = t1 * t1 * dot(gi1, x1, y1, z1);
 		}
 		
 		// Calculate the contribution from the third corner
@@ -312,7 +437,7 @@ public abstract class SimplexNoise {
 			n2 = 0.0;
 		} else {
 			t2 *= t2;
-			n2 = t2 * t2 * dot(grad3[gi2], x2, y2, z2);
+			n2 = t2 * t2 * dot(gi2, x2, y2, z2);
 		}
 		
 		// Calculate the contribution from the fourth corner
@@ -321,7 +446,7 @@ public abstract class SimplexNoise {
 			n3 = 0.0;
 		} else {
 			t3 *= t3;
-			n3 = t3 * t3 * dot(grad3[gi3], x3, y3, z3);
+			n3 = t3 * t3 * dot(gi3, x3, y3, z3);
 		}
 		
 		// Add contributions from each corner to get the final noise value.
@@ -337,7 +462,7 @@ public abstract class SimplexNoise {
 	 * @param w - coordinate in the noise (any double)
 	 * @return double - value of the noise at the coordinate specified [-1, 1]
 	 */
-	public static double noise(double x, double y, double z, double w) {
+	public double getValue(double x, double y, double z, double w) {
 
 		// Skew the (x,y,z,w) space to determine which cell of 24 simplices we're in
 		double n0, n1, n2, n3, n4;
@@ -456,11 +581,11 @@ public abstract class SimplexNoise {
 		int jj = j & 255;
 		int kk = k & 255;
 		int ll = l & 255;
-		int gi0 = perm[ii + perm[jj + perm[kk + perm[ll]]]] % 32;
-		int gi1 = perm[ii + i1 + perm[jj + j1 + perm[kk + k1 + perm[ll + l1]]]] % 32;
-		int gi2 = perm[ii + i2 + perm[jj + j2 + perm[kk + k2 + perm[ll + l2]]]] % 32;
-		int gi3 = perm[ii + i3 + perm[jj + j3 + perm[kk + k3 + perm[ll + l3]]]] % 32;
-		int gi4 = perm[ii + 1 + perm[jj + 1 + perm[kk + 1 + perm[ll + 1]]]] % 32;
+		int gi0 = permGrad4[ii + perm[jj + perm[kk + perm[ll]]]];
+		int gi1 = permGrad4[ii + i1 + perm[jj + j1 + perm[kk + k1 + perm[ll + l1]]]];
+		int gi2 = permGrad4[ii + i2 + perm[jj + j2 + perm[kk + k2 + perm[ll + l2]]]];
+		int gi3 = permGrad4[ii + i3 + perm[jj + j3 + perm[kk + k3 + perm[ll + l3]]]];
+		int gi4 = permGrad4[ii + 1 + perm[jj + 1 + perm[kk + 1 + perm[ll + 1]]]];
 		
 		// Calculate the contribution from the first corner
 		double t0 = 0.6 - x0 * x0 - y0 * y0 - z0 * z0 - w0 * w0;
@@ -468,7 +593,7 @@ public abstract class SimplexNoise {
 			n0 = 0.0;
 		} else {
 			t0 *= t0;
-			n0 = t0 * t0 * dot(grad4[gi0], x0, y0, z0, w0);
+			n0 = t0 * t0 * dot4(gi0, x0, y0, z0, w0);
 		}
 		
 		// Calculate the contribution from the second corner
@@ -477,7 +602,7 @@ public abstract class SimplexNoise {
 			n1 = 0.0;
 		} else {
 			t1 *= t1;
-			n1 = t1 * t1 * dot(grad4[gi1], x1, y1, z1, w1);
+			n1 = t1 * t1 * dot4(gi1, x1, y1, z1, w1);
 		}
 		
 		// Calculate the contribution from the third corner
@@ -486,7 +611,7 @@ public abstract class SimplexNoise {
 			n2 = 0.0;
 		} else { 
 			t2 *= t2;
-			n2 = t2 * t2 * dot(grad4[gi2], x2, y2, z2, w2);
+			n2 = t2 * t2 * dot4(gi2, x2, y2, z2, w2);
 		}
 		
 		// Calculate the contribution from the fourth corner
@@ -495,7 +620,7 @@ public abstract class SimplexNoise {
 			n3 = 0.0;
 		} else {
 			t3 *= t3;
-			n3 = t3 * t3 * dot(grad4[gi3], x3, y3, z3, w3);
+			n3 = t3 * t3 * dot4(gi3, x3, y3, z3, w3);
 		}
 		
 		// Calculate the contribution from the fifth corner
@@ -504,7 +629,7 @@ public abstract class SimplexNoise {
 			n4 = 0.0;
 		} else {
 			t4 *= t4;
-			n4 = t4 * t4 * dot(grad4[gi4], x4, y4, z4, w4);
+			n4 = t4 * t4 * dot4(gi4, x4, y4, z4, w4);
 		}
 		
 		// Sum up and scale the result to cover the range [-1,1]
@@ -512,24 +637,128 @@ public abstract class SimplexNoise {
 	}
 
 	/**
-	 * This inner class represents a gradient
-	 * Member access is faster in Java than array access
+	 * <p>Evaluates 2D simplex noise at count points given as separate coordinate arrays, writing 
+	 * out[outOffset + n] = getValue(xs[n], ys[n]) in single precision.</p>
+	 * 
+	 * <p>The simplex cell is located in double precision, so large coordinates stay accurate, and the 
+	 * remaining corner math is done in float with no data-dependent branches, which lets the JIT 
+	 * keep the loop body straight-line. Results differ from getValue() by float rounding only.</p>
 	 */
-	private static final class Grad {
-		final double x, y, z, w;
-
-		Grad(double x, double y, double z) {
-			this.x = x;
-			this.y = y;
-			this.z = z;
-			this.w = 0;
+	public void getValues(double[] xs, double[] ys, float[] out, int outOffset, int count) {
+		final int perm[] = this.perm;
+		final int permGrad3[] = this.permGrad3;
+		
+		for (int n = 0; n < count; n++) {
+			final double x = xs[n], y = ys[n];
+			
+			// Skew the input space to determine which simplex cell we're in
+			final double scew = (x + y) * scewFactor2D;
+			final int i = floor(x + scew);
+			final int j = floor(y + scew);
+			
+			// The x,y distances from the unskewed cell origin
+			final double unscew = (i + j) * unscewFactor2D;
+			final float x0 = (float) (x - (i - unscew));
+			final float y0 = (float) (y - (j - unscew));
+			
+			// Offsets for the middle corner, chosen without branching
+			final int i1 = x0 > y0 ? 1 : 0;
+			final int j1 = 1 - i1;
+			final float x1 = x0 - i1 + unscewFactor2F;
+			final float y1 = y0 - j1 + unscewFactor2F;
+			final float x2 = x0 - 1.0f + 2.0f * unscewFactor2F;
+			final float y2 = y0 - 1.0f + 2.0f * unscewFactor2F;
+			
+			final int ii = i & 255;
+			final int jj = j & 255;
+			final int gi0 = permGrad3[ii + perm[jj]];
+			final int gi1 = permGrad3[ii + i1 + perm[jj + j1]];
+			final int gi2 = permGrad3[ii + 1 + perm[jj + 1]];
+			
+			// Corners outside the radius are clamped to a zero weight instead of skipped
+			float t0 = Math.max(0.0f, 0.5f - x0 * x0 - y0 * y0);
+			float t1 = Math.max(0.0f, 0.5f - x1 * x1 - y1 * y1);
+			float t2 = Math.max(0.0f, 0.5f - x2 * x2 - y2 * y2);
+			t0 *= t0;
+			t1 *= t1;
+			t2 *= t2;
+			final float n0 = t0 * t0 * (GRAD3[gi0] * x0 + GRAD3[gi0+1] * y0);
+			final float n1 = t1 * t1 * (GRAD3[gi1] * x1 + GRAD3[gi1+1] * y1);
+			final float n2 = t2 * t2 * (GRAD3[gi2] * x2 + GRAD3[gi2+1] * y2);
+			
+			out[outOffset + n] = 70.0f * (n0 + n1 + n2);
 		}
+	}
 
-		Grad(double x, double y, double z, double w) {
-			this.x = x;
-			this.y = y;
-			this.z = z;
-			this.w = w;
+	/**
+	 * Evaluates 3D simplex noise at count points given as separate coordinate arrays, writing 
+	 * out[outOffset + n] = getValue(xs[n], ys[n], zs[n]) in single precision.
+	 * @see #getValues(double[], double[], float[], int, int)
+	 */
+	public void getValues(double[] xs, double[] ys, double[] zs, float[] out, int outOffset, int count) {
+		final int perm[] = this.perm;
+		final int permGrad3[] = this.permGrad3;
+		
+		for (int n = 0; n < count; n++) {
+			final double x = xs[n], y = ys[n], z = zs[n];
+			
+			// Skew the input space to determine which simplex cell we're in
+			final double s = (x + y + z) * scewFactor3D;
+			final int i = floor(x + s);
+			final int j = floor(y + s);
+			final int k = floor(z + s);
+			
+			// The x,y,z distances from the unskewed cell origin
+			final double t = (i + j + k) * unscewFactor3D;
+			final float x0 = (float) (x - (i - t));
+			final float y0 = (float) (y - (j - t));
+			final float z0 = (float) (z - (k - t));
+			
+			// The second corner steps along the largest coordinate and the third corner 
+			// along the two largest, derived from the pairwise comparisons without branching
+			final int xy = x0 >= y0 ? 1 : 0;
+			final int yz = y0 >= z0 ? 1 : 0;
+			final int xz = x0 >= z0 ? 1 : 0;
+			final int i1 = xy & xz;
+			final int j1 = (1 - xy) & yz;
+			final int k1 = (1 - xz) & (1 - yz);
+			final int i2 = xy | xz;
+			final int j2 = (1 - xy) | yz;
+			final int k2 = (1 - xz) | (1 - yz);
+			
+			final float x1 = x0 - i1 + unscewFactor3F;
+			final float y1 = y0 - j1 + unscewFactor3F;
+			final float z1 = z0 - k1 + unscewFactor3F;
+			final float x2 = x0 - i2 + 2.0f * unscewFactor3F;
+			final float y2 = y0 - j2 + 2.0f * unscewFactor3F;
+			final float z2 = z0 - k2 + 2.0f * unscewFactor3F;
+			final float x3 = x0 - 1.0f + 3.0f * unscewFactor3F;
+			final float y3 = y0 - 1.0f + 3.0f * unscewFactor3F;
+			final float z3 = z0 - 1.0f + 3.0f * unscewFactor3F;
+			
+			final int ii = i & 255;
+			final int jj = j & 255;
+			final int kk = k & 255;
+			final int gi0 = permGrad3[ii + perm[jj + perm[kk]]];
+			final int gi1 = permGrad3[ii + i1 + perm[jj + j1 + perm[kk + k1]]];
+			final int gi2 = permGrad3[ii + i2 + perm[jj + j2 + perm[kk + k2]]];
+			final int gi3 = permGrad3[ii + 1 + perm[jj + 1 + perm[kk + 1]]];
+			
+			// Corners outside the radius are clamped to a zero weight instead of skipped
+			float t0 = Math.max(0.0f, 0.6f - x0 * x0 - y0 * y0 - z0 * z0);
+			float t1 = Math.max(0.0f, 0.6f - x1 * x1 - y1 * y1 - z1 * z1);
+			float t2 = Math.max(0.0f, 0.6f - x2 * x2 - y2 * y2 - z2 * z2);
+			float t3 = Math.max(0.0f, 0.6f - x3 * x3 - y3 * y3 - z3 * z3);
+			t0 *= t0;
+			t1 *= t1;
+			t2 *= t2;
+			t3 *= t3;
+			final float n0 = t0 * t0 * (GRAD3[gi0] * x0 + GRAD3[gi0+1] * y0 + GRAD3[gi0+2] * z0);
+			final float n1 = t1 * t1 * (GRAD3[gi1] * x1 + GRAD3[gi1+1] * y1 + GRAD3[gi1+2] * z1);
+			final float n2 = t2 * t2 * (GRAD3[gi2] * x2 + GRAD3[gi2+1] * y2 + GRAD3[gi2+2] * z2);
+			final float n3 = t3 * t3 * (GRAD3[gi3] * x3 + GRAD3[gi3+1] * y3 + GRAD3[gi3+2] * z3);
+			
+			out[outOffset + n] = 32.0f * (n0 + n1 + n2 + n3);
 		}
 	}
 	
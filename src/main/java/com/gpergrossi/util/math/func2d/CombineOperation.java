@@ -23,5 +23,20 @@ public class CombineOperation implements Function2D {
 		if (noiseB != null) b = noiseB.getValue(x, y);
 		return operation.combine(a, b);
 	}
+	
+	@Override
+	public void fill(double[] out, int width, int height, double originX, double originY, double step) {
+		final int size = width*height;
+		final double[] valuesB = new double[size];
+		
+		if (noiseA != null) noiseA.fill(out, width, height, originX, originY, step);
+		else for (int k = 0; k < size; k++) out[k] = 0;
+		if (noiseB != null) noiseB.fill(valuesB, width, height, originX, originY, step);
+		
+		final Operation operation = this.operation;
+		for (int k = 0; k < size; k++) {
+			out[k] = operation.combine(out[k], valuesB[k]);
+		}
+	}
 
 }
@@ -0,0 +1,269 @@
+package com.gpergrossi.util.math.func2d;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>A flattened form of a tree of {@link CombineOperation}s and {@link RemapOperation}s. The tree 
+ * is compiled once into an array of instructions, each writing one register, which removes the 
+ * recursive calls and null checks from every sample.</p>
+ * 
+ * <p>While compiling:
+ * <ul>
+ * <li>Missing children of a CombineOperation become the constant 0.</li>
+ * <li>Operations on constant inputs ({@link ConstantFunction2D}) are evaluated once and replaced by their result.</li>
+ * <li>A function instance used in several places, or two operations with the same operator and inputs, 
+ * are evaluated only once per sample.</li>
+ * <li>Instructions the result no longer depends on, such as the inputs of a folded operation, are removed.</li>
+ * </ul>
+ * Any other function is a leaf and is sampled through its own {@link Function2D#fill} method, so 
+ * {@link #fill(double[], int, int, double, double, double)} evaluates a whole row of each leaf and 
+ * operation at a time.</p>
+ * 
+ * <p>The compiled function captures the tree as it was when compiled. Results are identical to 
+ * evaluating the tree directly.</p>
+ */
+public class CompiledFunction2D implements Function2D {
+
+	private static final int CONSTANT = 0, LEAF = 1, COMBINE = 2, REMAP = 3;
+	
+	public static CompiledFunction2D compile(Function2D root) {
+		Compiler compiler = new Compiler();
+		int result = compiler.compile(root);
+		result = compiler.removeDeadCode(result);
+		return new CompiledFunction2D(compiler, result);
+	}
+	
+	private final int[] opcodes;
+	private final int[] argA, argB;		// Input registers of each instruction
+	private final double[] constants;
+	private final Function2D[] leaves;
+	private final CombineOperation.Operation[] combines;
+	private final RemapOperation.Operation[] remaps;
+	private final int result;
+	private final ThreadLocal<double[]> registerFile;	// Registers for getValue(), one set per thread
+	
+	private CompiledFunction2D(Compiler compiler, int result) {
+		final int size = compiler.opcodes.size();
+		this.opcodes = new int[size];
+		this.argA = new int[size];
+		this.argB = new int[size];
+		this.constants = new double[size];
+		this.leaves = new Function2D[size];
+		this.combines = new CombineOperation.Operation[size];
+		this.remaps = new RemapOperation.Operation[size];
+		for (int i = 0; i < size; i++) {
+			opcodes[i] = compiler.opcodes.get(i);
+			argA[i] = compiler.argA.get(i);
+			argB[i] = compiler.argB.get(i);
+			constants[i] = compiler.constants.get(i);
+			final Object operand = compiler.operands.get(i);
+			switch (opcodes[i]) {
+				case LEAF: leaves[i] = (Function2D) operand; break;
+				case COMBINE: combines[i] = (CombineOperation.Operation) operand; break;
+				case REMAP: remaps[i] = (RemapOperation.Operation) operand; break;
+			}
+		}
+		this.result = result;
+		this.registerFile = ThreadLocal.withInitial(() -> new double[size]);
+	}
+	
+	/**
+	 * @return the number of instructions evaluated per sample
+	 */
+	public int getNumInstructions() {
+		return opcodes.length;
+	}
+	
+	@Override
+	public double getValue(double x, double y) {
+		final double[] registers = registerFile.get();
+		for (int i = 0; i < opcodes.length; i++) {
+			switch (opcodes[i]) {
+				case CONSTANT: registers[i] = constants[i]; break;
+				case LEAF: registers[i] = leaves[i].getValue(x, y); break;
+				case COMBINE: registers[i] = combines[i].combine(registers[argA[i]], registers[argB[i]]); break;
+				case REMAP: registers[i] = remaps[i].remap(registers[argA[i]]); break;
+			}
+		}
+		return registers[result];
+	}
+	
+	@Override
+	public void fill(double[] out, int width, int height, double originX, double originY, double step) {
+		final double[][] registers = new double[opcodes.length][];
+		for (int i = 0; i < opcodes.length; i++) {
+			registers[i] = new double[width];
+			if (opcodes[i] == CONSTANT) Arrays.fill(registers[i], constants[i]);
+		}
+		
+		for (int y = 0; y < height; y++) {
+			final double rowY = originY + y*step;
+			for (int i = 0; i < opcodes.length; i++) {
+				final double[] row = registers[i];
+				switch (opcodes[i]) {
+					case LEAF: 
+						leaves[i].fill(row, width, 1, originX, rowY, step);
+						break;
+					case COMBINE: {
+						final CombineOperation.Operation operation = combines[i];
+						final double[] a = registers[argA[i]], b = registers[argB[i]];
+						for (int k = 0; k < width; k++) row[k] = operation.combine(a[k], b[k]);
+						break;
+					}
+					case REMAP: {
+						final RemapOperation.Operation operation = remaps[i];
+						final double[] a = registers[argA[i]];
+						for (int k = 0; k < width; k++) row[k] = operation.remap(a[k]);
+						break;
+					}
+				}
+			}
+			System.arraycopy(registers[result], 0, out, y*width, width);
+		}
+	}
+	
+	private static final class Compiler {
+		final List<Integer> opcodes = new ArrayList<>();
+		final List<Integer> argA = new ArrayList<>(), argB = new ArrayList<>();
+		final List<Double> constants = new ArrayList<>();
+		final List<Object> operands = new ArrayList<>();
+		
+		final Map<Function2D, Integer> compiled = new IdentityHashMap<>();
+		final Map<List<Object>, Integer> instructions = new HashMap<>();	// Shares identical instructions
+		
+		int compile(Function2D function) {
+			if (function == null) return constant(0);
+			
+			Integer register = compiled.get(function);
+			if (register != null) return register;
+			
+			if (function instanceof ConstantFunction2D) {
+				register = constant(((ConstantFunction2D) function).value);
+			} else if (function instanceof CombineOperation) {
+				CombineOperation combine = (CombineOperation) function;
+				int a = compile(combine.noiseA);
+				int b = compile(combine.noiseB);
+				if (isConstant(a) && isConstant(b)) {
+					register = constant(combine.operation.combine(constants.get(a), constants.get(b)));
+				} else {
+					register = emit(COMBINE, a, b, combine.operation);
+				}
+			} else if (function instanceof RemapOperation) {
+				RemapOperation remap = (RemapOperation) function;
+				int a = compile(remap.noiseA);
+				if (isConstant(a)) {
+					register = constant(remap.operation.remap(constants.get(a)));
+				} else {
+					register = emit(REMAP, a, -1, remap.operation);
+				}
+			} else {
+				register = emit(LEAF, -1, -1, function);
+			}
+			
+			compiled.put(function, register);
+			return register;
+		}
+		
+		boolean isConstant(int register) {
+			return opcodes.get(register) == CONSTANT;
+		}
+		
+		int constant(double value) {
+			// Keyed by bit pattern so that -0.0 and NaN constants are kept distinct and exact
+			return emit(CONSTANT, -1, -1, Double.doubleToRawLongBits(value), value);
+		}
+		
+		int emit(int opcode, int a, int b, Object operand) {
+			return emit(opcode, a, b, operand, 0);
+		}
+		
+		private int emit(int opcode, int a, int b, Object operand, double constant) {
+			final List<Object> key = Arrays.asList(opcode, a, b, new Identity(operand));
+			final Integer existing = instructions.get(key);
+			if (existing != null) return existing;
+			
+			final int register = opcodes.size();
+			opcodes.add(opcode);
+			argA.add(a);
+			argB.add(b);
+			constants.add(constant);
+			operands.add(opcode == CONSTANT ? null : operand);
+			instructions.put(key, register);
+			return register;
+		}
+		
+		/**
+		 * Drops every instruction the result register does not depend on and renumbers the rest, 
+		 * keeping their order. Instructions only read lower registers, so one backward pass finds them all. 
+		 * Must be called once, after compiling.
+		 * @return the new result register
+		 */
+		int removeDeadCode(int result) {
+			final int size = opcodes.size();
+			final boolean[] live = new boolean[size];
+			live[result] = true;
+			for (int i = result; i >= 0; i--) {
+				if (!live[i]) continue;
+				if (argA.get(i) >= 0) live[argA.get(i)] = true;
+				if (argB.get(i) >= 0) live[argB.get(i)] = true;
+			}
+			
+			final int[] renumbered = new int[size];
+			int next = 0;
+			for (int i = 0; i < size; i++) {
+				if (!live[i]) continue;
+				renumbered[i] = next;
+				opcodes.set(next, opcodes.get(i));
+				argA.set(next, argA.get(i) >= 0 ? renumbered[argA.get(i)] : -1);
+				argB.set(next, argB.get(i) >= 0 ? renumbered[argB.get(i)] : -1);
+				constants.set(next, constants.get(i));
+				operands.set(next, operands.get(i));
+				next++;
+			}
+			
+			final int removed = size - next;
+			for (int i = 0; i < removed; i++) {
+				final int last = opcodes.size()-1;
+				opcodes.remove(last);
+				argA.remove(last);
+				argB.remove(last);
+				constants.remove(last);
+				operands.remove(last);
+			}
+			compiled.clear();
+			instructions.clear();
+			return renumbered[result];
+		}
+	}
+	
+	/**
+	 * Compares operators and leaves by identity, and constant bit patterns by value
+	 */
+	private static final class Identity {
+		final Object object;
+		
+		Identity(Object object) {
+			this.object = object;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Identity)) return false;
+			Object other = ((Identity) obj).object;
+			if (object instanceof Long) return object.equals(other);
+			return object == other;
+		}
+		
+		@Override
+		public int hashCode() {
+			if (object instanceof Long) return object.hashCode();
+			return System.identityHashCode(object);
+		}
+	}
+	
+}
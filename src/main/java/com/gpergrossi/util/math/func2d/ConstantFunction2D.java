@@ -0,0 +1,27 @@
+package com.gpergrossi.util.math.func2d;
+
+import java.util.Arrays;
+
+/**
+ * A function with the same value everywhere. {@link CompiledFunction2D} folds operations 
+ * whose inputs are all constant.
+ */
+public class ConstantFunction2D implements Function2D {
+
+	public final double value;
+	
+	public ConstantFunction2D(double value) {
+		this.value = value;
+	}
+	
+	@Override
+	public double getValue(double x, double y) {
+		return value;
+	}
+	
+	@Override
+	public void fill(double[] out, int width, int height, double originX, double originY, double step) {
+		Arrays.fill(out, 0, width*height, value);
+	}
+	
+}
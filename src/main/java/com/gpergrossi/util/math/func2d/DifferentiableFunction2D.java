@@ -0,0 +1,17 @@
+package com.gpergrossi.util.math.func2d;
+
+/**
+ * A {@link Function2D} that can compute its gradient analytically along with its value, 
+ * avoiding the extra evaluations needed by finite differences.
+ */
+public interface DifferentiableFunction2D extends Function2D {
+
+	/**
+	 * Returns getValue(x, y) and writes the partial derivatives of this function at (x, y) 
+	 * into derivatives[0] (d/dx) and derivatives[1] (d/dy).
+	 * 
+	 * @param derivatives - caller-provided array of length at least 2
+	 */
+	public double getValue(double x, double y, double[] derivatives);
+	
+}
@@ -11,8 +11,9 @@ public class FiniteFeature implements Function2D {
 	public FiniteFeature(Int2DRange.Floats details) {
 		this.feature = details;
 		
-		float dx = details.width / 2.0f;
-		float dy = details.height / 2.0f;
+		// Farthest reach from the local origin; interpolation is non-zero up to one sample past the data
+		float dx = Math.max(Math.abs(details.minX-1), Math.abs(details.maxX+1));
+		float dy = Math.max(Math.abs(details.minY-1), Math.abs(details.maxY+1));
 		this.radius = (float) Math.sqrt(dx*dx + dy*dy);
 	}
 	
@@ -1,7 +1,40 @@
 package com.gpergrossi.util.math.func2d;
 
+import com.gpergrossi.util.geom.ranges.Int2DRange;
+
 public interface Function2D {
 
 	public double getValue(double x, double y);
 	
+	/**
+	 * <p>Samples this function on a regular grid, so that 
+	 * out[y*width + x] = getValue(originX + x*step, originY + y*step).</p>
+	 * 
+	 * <p>Implementations override this to hoist per-row and per-call work out of the inner loop. 
+	 * The results must be identical to calling getValue() for each sample.</p>
+	 * 
+	 * @param out - destination array of at least width*height values, row major
+	 */
+	public default void fill(double[] out, int width, int height, double originX, double originY, double step) {
+		int index = 0;
+		for (int y = 0; y < height; y++) {
+			final double sampleY = originY + y*step;
+			for (int x = 0; x < width; x++) {
+				out[index++] = getValue(originX + x*step, sampleY);
+			}
+		}
+	}
+	
+	/**
+	 * Samples this function on a regular grid covering the range, so that 
+	 * out.get(x, y) = getValue(originX + (x-out.minX)*step, originY + (y-out.minY)*step)
+	 */
+	public default void fill(Int2DRange.Floats out, double originX, double originY, double step) {
+		final double[] values = new double[out.size()];
+		fill(values, out.width, out.height, originX, originY, step);
+		for (int i = 0; i < values.length; i++) {
+			out.data[i] = (float) values[i];
+		}
+	}
+	
 }
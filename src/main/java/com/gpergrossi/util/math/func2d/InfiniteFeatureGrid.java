@@ -1,13 +1,31 @@
 package com.gpergrossi.util.math.func2d;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
 
+import com.gpergrossi.util.geom.ranges.Int2DRange;
+import com.gpergrossi.util.hash.XXHash32;
+
+/**
+ * <p>Scatters {@link FiniteFeature}s over an infinite plane, one per tile of a regular grid, and 
+ * returns the maximum of all features covering a point.</p>
+ * 
+ * <p>The placement of each tile (center, feature, rotation and scale) is derived from a stateless 
+ * hash of the seed and tile coordinates, so it is the same no matter which points are sampled. 
+ * Placements are kept in a small two-way cache, so sampling a point allocates nothing and 
+ * does no trigonometry once its neighbouring tiles have been placed.</p>
+ * 
+ * <p>{@link #fill(double[], int, int, double, double, double)} works per feature instead of per 
+ * sample: each tile overlapping the requested region is placed once and its feature is rasterised 
+ * only over its own bounding box.</p>
+ */
 public class InfiniteFeatureGrid implements Function2D {
 
+	private static final int PLACEMENT_CACHE_SIZE = 4096;	// Must be a power of two
+	
 	List<FiniteFeature> features;
-	List<Integer> weights;
+	int[] cumulativeWeights;
 	int totalWeight;
 	
 	long seed;
@@ -25,20 +43,25 @@ public class InfiniteFeatureGrid implements Function2D {
 	boolean translation = false;
 	float offsetX = 0, offsetY = 0;
 	
+	private final Placement[] placements;	// Two candidate slots per tile hash, entries are immutable
+	
 	public InfiniteFeatureGrid(long seed, int tileSizeX, int tileSizeY) {
 		this.seed = seed;
 		this.tileSizeX = tileSizeX;
 		this.tileSizeY = tileSizeY;
 		this.features = new ArrayList<>();
-		this.weights = new ArrayList<>();
+		this.cumulativeWeights = new int[0];
+		this.placements = new Placement[PLACEMENT_CACHE_SIZE];
 	}
 	
 	public InfiniteFeatureGrid addFeature(int weight, FiniteFeature feature) {
 		if (weight <= 0) throw new IllegalArgumentException();
 		maxRadius = Math.max(maxRadius, feature.getRadius());
 		this.features.add(feature);
-		this.weights.add(weight);
 		this.totalWeight += weight;
+		this.cumulativeWeights = Arrays.copyOf(cumulativeWeights, cumulativeWeights.length+1);
+		this.cumulativeWeights[cumulativeWeights.length-1] = totalWeight;
+		clearPlacements();
 		return this;
 	}
 	
@@ -46,6 +69,7 @@ public class InfiniteFeatureGrid implements Function2D {
 		this.rotation = true;
 		this.minAngle = minAngle;
 		this.maxAngle = maxAngle;
+		clearPlacements();
 		return this;
 	}
 	
@@ -53,6 +77,7 @@ public class InfiniteFeatureGrid implements Function2D {
 		this.scaling = true;
 		this.minScale = minScale;
 		this.maxScale = maxScale;
+		clearPlacements();
 		return this;
 	}
 
@@ -60,26 +85,27 @@ public class InfiniteFeatureGrid implements Function2D {
 		this.translation = true;
 		this.offsetX = offsetX;
 		this.offsetY = offsetY;
+		clearPlacements();
 		return this;
 	}
 	
-	protected FiniteFeature getRandomFeature(Random random, double x, double y) {
-		double roll = random.nextInt(totalWeight);
-		for (int i = 0; i < features.size(); i++) {
-			roll -= weights.get(i);
-			if (roll < 0) return features.get(i);
-		}
-		return null;
+	/**
+	 * Forgets all cached tile placements. Must be called when anything affecting placement changes.
+	 */
+	protected void clearPlacements() {
+		Arrays.fill(placements, null);
 	}
 	
-	protected void createSeed(Random random, int x, int y) {
-		random.setSeed(seed);
-		long seedX = random.nextInt(Integer.MAX_VALUE);
-		long seedY = random.nextInt(Integer.MAX_VALUE);
-		
-		long rx = (x * seedX);
-		long ry = (y * seedY);
-		random.setSeed(rx + ry);
+	/**
+	 * Chooses the feature placed at a tile whose center is (x, y), or null to leave the tile empty
+	 */
+	protected FiniteFeature getRandomFeature(TileRandom random, double x, double y) {
+		if (totalWeight == 0) return null;
+		final int roll = random.nextInt(totalWeight);
+		for (int i = 0; i < cumulativeWeights.length; i++) {
+			if (roll < cumulativeWeights[i]) return features.get(i);
+		}
+		return null;
 	}
 	
 	@Override
@@ -90,32 +116,70 @@ public class InfiniteFeatureGrid implements Function2D {
 		double safeRadius = maxRadius*maxScale + Math.sqrt(offsetX*offsetX + offsetY*offsetY);
 		double safeRadius2 = safeRadius * safeRadius;
 		
-		int tileRangeX = (int) Math.ceil(safeRadius / tileSizeX);
-		int tileRangeY = (int) Math.ceil(safeRadius / tileSizeY);
+		// A tile i steps away has its unshifted center at least (|i| - 0.5) tiles from any point of this tile
+		int tileRangeX = (int) Math.ceil(safeRadius / tileSizeX + 0.5);
+		int tileRangeY = (int) Math.ceil(safeRadius / tileSizeY + 0.5);
 		double val = 0;
 		
-		Random random = new Random();
 		float fx = (float) x;
 		float fy = (float) y;
 		
 		for (int i = -tileRangeX; i <= tileRangeX; i++) {
-			double xDist = i * tileSizeX;
+			double xDist = Math.max(0, Math.abs(i) - 0.5) * tileSizeX;
 			
 			for (int j = -tileRangeY; j <= tileRangeY; j++) {
-				double yDist = j * tileSizeY;
+				double yDist = Math.max(0, Math.abs(j) - 0.5) * tileSizeY;
 				
 				if (xDist*xDist + yDist*yDist > safeRadius2) continue;
 				
-				double tileVal = getTileVal(random, tileX+i, tileY+j, fx, fy);
+				double tileVal = getPlacement(tileX+i, tileY+j).getValue(fx, fy);
 				val = (val > tileVal) ? val : tileVal;
 			}
 		}
 		
 		return val;
 	}
+	
+	@Override
+	public void fill(double[] out, int width, int height, double originX, double originY, double step) {
+		Arrays.fill(out, 0, width*height, 0);
+		if (width <= 0 || height <= 0) return;
+		
+		// Every tile whose feature could reach the region
+		final double safeRadius = maxRadius*maxScale + Math.sqrt(offsetX*offsetX + offsetY*offsetY);
+		final double maxX = originX + (width-1)*step;
+		final double maxY = originY + (height-1)*step;
+		final int minTileX = (int) Math.floor((originX - safeRadius) / tileSizeX);
+		final int minTileY = (int) Math.floor((originY - safeRadius) / tileSizeY);
+		final int maxTileX = (int) Math.floor((maxX + safeRadius) / tileSizeX);
+		final int maxTileY = (int) Math.floor((maxY + safeRadius) / tileSizeY);
+		
+		for (int tileY = minTileY; tileY <= maxTileY; tileY++) {
+			for (int tileX = minTileX; tileX <= maxTileX; tileX++) {
+				getPlacement(tileX, tileY).rasterize(out, width, height, originX, originY, step);
+			}
+		}
+	}
+	
+	protected Placement getPlacement(int tileX, int tileY) {
+		// Each tile may live in one of two slots, so a pair of colliding neighbours does not thrash
+		final int hash = XXHash32.hashInts(0, tileX, tileY);
+		final int slot1 = hash & (PLACEMENT_CACHE_SIZE-1);
+		final int slot2 = (hash >>> 16) & (PLACEMENT_CACHE_SIZE-1);
+		
+		Placement placement = placements[slot1];
+		if (placement != null && placement.tileX == tileX && placement.tileY == tileY) return placement;
+		final Placement other = placements[slot2];
+		if (other != null && other.tileX == tileX && other.tileY == tileY) return other;
+		
+		placement = createPlacement(tileX, tileY);
+		if (placements[slot1] == null || placements[slot2] != null) placements[slot1] = placement;
+		else placements[slot2] = placement;
+		return placement;
+	}
 
-	private double getTileVal(Random random, int tileX, int tileY, float x, float y) {
-		createSeed(random, tileX, tileY);
+	private Placement createPlacement(int tileX, int tileY) {
+		final TileRandom random = new TileRandom(seed, tileX, tileY);
 		
 		// Get the current tile's center plus possible translation
 		float centerX, centerY;
@@ -128,31 +192,151 @@ public class InfiniteFeatureGrid implements Function2D {
 		}
 
 		// Get a feature for this coordinate
-		FiniteFeature feature = getRandomFeature(random, centerX, centerY);
-		if (feature == null) return 0;
-		
-		// Translate the input point
-		x -= centerX;
-		y -= centerY;
+		final FiniteFeature feature = getRandomFeature(random, centerX, centerY);
 		
 		// Rotate around origin (opposite direction as feature would be rotated)
+		float sin = 0, cos = 1;
 		if (rotation) {
-		float angle = random.nextFloat() * (maxAngle - minAngle) + minAngle;
-			float sin = (float) Math.sin(-angle);
-			float cos = (float) Math.cos(-angle);
-			float xr = cos*x - sin*y;
-			float yr = sin*x + cos*y;
-			x = xr; y = yr;
+			float angle = random.nextFloat() * (maxAngle - minAngle) + minAngle;
+			sin = (float) Math.sin(-angle);
+			cos = (float) Math.cos(-angle);
 		}
 		
 		// Scale (divide by scale by which feature would be multiplied)
+		float scale = 1;
 		if (scaling) {
-			float scale = random.nextFloat() * (maxScale - minScale) + minScale;
-			x /= scale;
-			y /= scale;
+			scale = random.nextFloat() * (maxScale - minScale) + minScale;
+		}
+		
+		return new Placement(tileX, tileY, feature, centerX, centerY, rotation, sin, cos, scaling, scale);
+	}
+	
+	/**
+	 * Where and how the feature of one tile is placed. Immutable.
+	 */
+	protected static final class Placement {
+		public final int tileX, tileY;
+		public final FiniteFeature feature;
+		public final float centerX, centerY;
+		
+		final boolean rotated, scaled;
+		final float sin, cos, scale;
+		
+		Placement(int tileX, int tileY, FiniteFeature feature, float centerX, float centerY, boolean rotated, float sin, float cos, boolean scaled, float scale) {
+			this.tileX = tileX;
+			this.tileY = tileY;
+			this.feature = feature;
+			this.centerX = centerX;
+			this.centerY = centerY;
+			this.rotated = rotated;
+			this.sin = sin;
+			this.cos = cos;
+			this.scaled = scaled;
+			this.scale = scale;
 		}
 		
-		return feature.getValue(x, y);
+		/**
+		 * @return the value of this tile's feature at the given world coordinate
+		 */
+		public double getValue(float x, float y) {
+			if (feature == null) return 0;
+			
+			// Translate the input point
+			x -= centerX;
+			y -= centerY;
+			
+			if (rotated) {
+				float xr = cos*x - sin*y;
+				float yr = sin*x + cos*y;
+				x = xr; y = yr;
+			}
+			
+			if (scaled) {
+				x /= scale;
+				y /= scale;
+			}
+			
+			return feature.getValue(x, y);
+		}
+		
+		/**
+		 * Max-blends this placement's feature into a grid of samples, visiting only the samples 
+		 * inside the feature's transformed bounding box
+		 */
+		void rasterize(double[] out, int width, int height, double originX, double originY, double step) {
+			if (feature == null) return;
+			
+			// The feature is non-zero strictly within one sample of its data range
+			final Int2DRange bounds = feature.feature;
+			final float localMinX = bounds.minX-1, localMaxX = bounds.maxX+1;
+			final float localMinY = bounds.minY-1, localMaxY = bounds.maxY+1;
+			
+			// Transform the local corners to world space (inverse of getValue)
+			final float s = scaled ? scale : 1;
+			final float c = rotated ? cos : 1, n = rotated ? sin : 0;
+			double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+			double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+			for (int corner = 0; corner < 4; corner++) {
+				final float lx = ((corner & 1) == 0) ? localMinX : localMaxX;
+				final float ly = ((corner & 2) == 0) ? localMinY : localMaxY;
+				final double wx = centerX + s*(c*lx + n*ly);
+				final double wy = centerY + s*(-n*lx + c*ly);
+				minX = Math.min(minX, wx);
+				minY = Math.min(minY, wy);
+				maxX = Math.max(maxX, wx);
+				maxY = Math.max(maxY, wy);
+			}
+			
+			// One sample of slack on each side absorbs float rounding at the edges
+			final int startX = (int) Math.max(0, Math.floor((minX - originX) / step) - 1);
+			final int startY = (int) Math.max(0, Math.floor((minY - originY) / step) - 1);
+			final int endX = (int) Math.min(width-1, Math.ceil((maxX - originX) / step) + 1);
+			final int endY = (int) Math.min(height-1, Math.ceil((maxY - originY) / step) + 1);
+			
+			for (int y = startY; y <= endY; y++) {
+				final float sampleY = (float) (originY + y*step);
+				int index = y*width + startX;
+				for (int x = startX; x <= endX; x++, index++) {
+					final double value = getValue((float) (originX + x*step), sampleY);
+					if (value > out[index]) out[index] = value;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * <p>A stream of random numbers for one tile, derived by hashing the grid seed, the tile coordinates 
+	 * and the index of each draw. The same tile always produces the same stream.</p>
+	 */
+	public static final class TileRandom {
+		private final int seed;
+		private final int tileX, tileY;
+		private int index;
+		
+		public TileRandom(long seed, int tileX, int tileY) {
+			this.seed = (int) (seed ^ (seed >>> 32));
+			this.tileX = tileX;
+			this.tileY = tileY;
+		}
+		
+		public int nextInt() {
+			return XXHash32.hashInts(seed, tileX, tileY, index++);
+		}
+		
+		/**
+		 * @return a uniformly distributed int in [0, bound)
+		 */
+		public int nextInt(int bound) {
+			if (bound <= 0) throw new IllegalArgumentException("bound must be positive");
+			return (int) (((nextInt() & 0xFFFFFFFFL) * bound) >>> 32);
+		}
+		
+		/**
+		 * @return a uniformly distributed float in [0, 1)
+		 */
+		public float nextFloat() {
+			return (nextInt() >>> 8) * 0x1.0p-24f;
+		}
 	}
 
 }
@@ -20,4 +20,14 @@ public class RemapOperation implements Function2D {
 		return operation.remap(noiseA.getValue(x, y));
 	}
 	
+	@Override
+	public void fill(double[] out, int width, int height, double originX, double originY, double step) {
+		noiseA.fill(out, width, height, originX, originY, step);
+		final Operation operation = this.operation;
+		final int size = width*height;
+		for (int k = 0; k < size; k++) {
+			out[k] = operation.remap(out[k]);
+		}
+	}
+	
 }
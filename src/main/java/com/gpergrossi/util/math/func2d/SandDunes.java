@@ -110,7 +110,7 @@ public class SandDunes extends InfiniteFeatureGrid {
 	}
 	
 	@Override
-	protected FiniteFeature getRandomFeature(Random random, double x, double y) {
+	protected FiniteFeature getRandomFeature(TileRandom random, double x, double y) {
 		double value = flatPatchLayer.getValue(x, y);
 		if (value < 0) return null;
 		
@@ -143,5 +143,21 @@ public class SandDunes extends InfiniteFeatureGrid {
 		double base = baseLayer.getValue(x, y);
 		return Math.max(super.getValue(x, y), base*flatness);
 	}
+	
+	@Override
+	public void fill(double[] out, int width, int height, double originX, double originY, double step) {
+		final int size = width*height;
+		final double[] flatness = new double[size];
+		final double[] base = new double[size];
+		
+		super.fill(out, width, height, originX, originY, step);
+		flatPatchLayer.fill(flatness, width, height, originX, originY, step);
+		baseLayer.fill(base, width, height, originX, originY, step);
+		
+		for (int k = 0; k < size; k++) {
+			if (flatness[k] < 0) out[k] = 0;
+			else out[k] = Math.max(out[k], base[k]*flatness[k]);
+		}
+	}
 
 }
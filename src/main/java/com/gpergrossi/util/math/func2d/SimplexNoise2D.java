@@ -1,44 +1,70 @@
 package com.gpergrossi.util.math.func2d;
 
+import java.util.Arrays;
 import java.util.Random;
 
 import com.gpergrossi.util.math.SimplexNoise;
 
-public class SimplexNoise2D implements Function2D {
-
-	public static double MAX_OFFSET = 16777216.0f; //2^24
+public class SimplexNoise2D implements DifferentiableFunction2D {
 	
-	//Manipulation of noise to allow seeded noise generation
-	double frequency = 1.0f / 64.0f;
+	public static final double MAX_OFFSET = 256.0;
 	
-	double xOff = 0;
-	double yOff = 0;
-	double xScale, yScale;
+	// Each seed gets its own permutation table. The small offsets move the lattice vertices, 
+	// where the noise is always zero, so that octaves of a fractal do not share them.
+	final SimplexNoise noise;
+	final double frequency;
+	final double xOff, yOff;
 	
 	public SimplexNoise2D(long seed, double frequency) {
-		Random random = new Random(seed);
-		
-		int xDir = random.nextInt(2);
-		if(xDir == 0) xDir = 1;
-		int yDir = random.nextInt(2);
-		if(yDir == 0) yDir = 1;
-		
-		this.xOff = random.nextDouble()*MAX_OFFSET*xDir;
-		this.yOff = random.nextDouble()*MAX_OFFSET*yDir;
-		
-		this.xScale = random.nextInt(2);
-		if(this.xScale == 0) this.xScale = 1;
-		this.yScale = random.nextInt(2);
-		if(this.yScale == 0) this.yScale = 1;
-
+		final Random random = new Random(seed);
+		this.noise = new SimplexNoise(seed);
 		this.frequency = frequency;
-		this.xScale *= frequency;
-		this.yScale *= frequency;
+		this.xOff = random.nextDouble()*MAX_OFFSET;
+		this.yOff = random.nextDouble()*MAX_OFFSET;
 	}
 
 	@Override
 	public double getValue(double x, double y) {
-		return SimplexNoise.noise(x*xScale+xOff, y*yScale+yOff);
+		return noise.getValue(x*frequency+xOff, y*frequency+yOff);
+	}
+	
+	@Override
+	public double getValue(double x, double y, double[] derivatives) {
+		final double value = noise.getValue(x*frequency+xOff, y*frequency+yOff, derivatives);
+		derivatives[0] *= frequency;
+		derivatives[1] *= frequency;
+		return value;
+	}
+	
+	@Override
+	public void fill(double[] out, int width, int height, double originX, double originY, double step) {
+		final SimplexNoise noise = this.noise;
+		final double frequency = this.frequency, xOff = this.xOff;
+		int index = 0;
+		for (int y = 0; y < height; y++) {
+			final double noiseY = (originY + y*step)*frequency+yOff;
+			for (int x = 0; x < width; x++) {
+				out[index++] = noise.getValue((originX + x*step)*frequency+xOff, noiseY);
+			}
+		}
+	}
+	
+	/**
+	 * Samples this function on a regular grid like {@link #fill(double[], int, int, double, double, double)}, 
+	 * using the single precision batch kernel of {@link SimplexNoise}. Values match getValue() only to within 
+	 * float rounding, so {@link #fill(com.gpergrossi.util.geom.ranges.Int2DRange.Floats, double, double, double) 
+	 * fill(Int2DRange.Floats, ...)} does not use it: that method must equal getValue() cast to float.
+	 */
+	public void fill(float[] out, int width, int height, double originX, double originY, double step) {
+		final double[] noiseX = new double[width];
+		final double[] noiseY = new double[width];
+		for (int x = 0; x < width; x++) {
+			noiseX[x] = (originX + x*step)*frequency+xOff;
+		}
+		for (int y = 0; y < height; y++) {
+			Arrays.fill(noiseY, (originY + y*step)*frequency+yOff);
+			noise.getValues(noiseX, noiseY, out, y*width, width);
+		}
 	}
 
 }
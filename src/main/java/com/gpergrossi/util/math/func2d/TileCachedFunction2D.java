@@ -0,0 +1,210 @@
+package com.gpergrossi.util.math.func2d;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.gpergrossi.util.data.ConcurrentLongMap;
+import com.gpergrossi.util.geom.ranges.Int2DRange;
+
+/**
+ * <p>A caching decorator for an expensive {@link Function2D}. The source is sampled on a regular grid 
+ * with spacing {@code step}, in square tiles of tileSize x tileSize samples. A tile is computed with the 
+ * source's bulk {@link Function2D#fill(Int2DRange.Floats, double, double, double) fill} the first time 
+ * any point inside it is requested, and later requests are served from the stored floats.</p>
+ * 
+ * <p>Samples are either snapped to the {@link Sampling#NEAREST nearest} grid point, which returns the source 
+ * value exactly (to float precision) for points on the grid, or {@link Sampling#BILINEAR bilinearly} 
+ * interpolated. Tiles store one extra row and column so interpolation never reads a neighbouring tile.</p>
+ * 
+ * <p>At most maxTiles tiles are kept. Lookups are lock-free; when a new tile pushes the cache over its 
+ * bound, a tile is evicted according to the {@link Eviction} policy. Concurrent misses on the same tile 
+ * may compute it more than once, but only one copy is kept. Tiles are added and evicted under one lock, 
+ * so the cached tiles and the eviction queue always agree.</p>
+ */
+public class TileCachedFunction2D implements Function2D {
+
+	public static enum Sampling {
+		/** Return the grid sample closest to the requested point */
+		NEAREST,
+		/** Interpolate between the four grid samples surrounding the requested point */
+		BILINEAR
+	}
+	
+	public static enum Eviction {
+		/** Evict the tile that was cached first */
+		OLDEST,
+		/** Evict a tile that has not been read since it was last considered (second chance / CLOCK), approximating least recently used */
+		LEAST_RECENTLY_USED
+	}
+	
+	private static final class Tile {
+		final long key;
+		final Int2DRange.Floats samples;
+		volatile boolean referenced;
+		
+		Tile(long key, Int2DRange.Floats samples) {
+			this.key = key;
+			this.samples = samples;
+		}
+	}
+	
+	private final Function2D source;
+	private final int tileSize;
+	private final double step;
+	private final int maxTiles;
+	private final Sampling sampling;
+	private final Eviction eviction;
+	
+	private final ConcurrentLongMap<Tile> tiles;
+	private final ArrayDeque<Tile> evictionQueue;	// Guarded by itself
+	private volatile int clearCount;				// Written while holding evictionQueue
+	
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	
+	public TileCachedFunction2D(Function2D source, int tileSize, double step, int maxTiles) {
+		this(source, tileSize, step, maxTiles, Sampling.BILINEAR, Eviction.LEAST_RECENTLY_USED);
+	}
+	
+	/**
+	 * @param source - the function to cache
+	 * @param tileSize - number of grid samples along each side of a tile
+	 * @param step - distance between grid samples
+	 * @param maxTiles - the maximum number of tiles kept in the cache
+	 */
+	public TileCachedFunction2D(Function2D source, int tileSize, double step, int maxTiles, Sampling sampling, Eviction eviction) {
+		if (tileSize <= 0) throw new IllegalArgumentException("tileSize must be positive");
+		if (!(step > 0)) throw new IllegalArgumentException("step must be positive");
+		if (maxTiles <= 0) throw new IllegalArgumentException("maxTiles must be positive");
+		this.source = source;
+		this.tileSize = tileSize;
+		this.step = step;
+		this.maxTiles = maxTiles;
+		this.sampling = sampling;
+		this.eviction = eviction;
+		this.tiles = new ConcurrentLongMap<>(maxTiles);
+		this.evictionQueue = new ArrayDeque<>(maxTiles+1);
+	}
+	
+	@Override
+	public double getValue(double x, double y) {
+		final double gridX = x / step;
+		final double gridY = y / step;
+		
+		if (sampling == Sampling.NEAREST) {
+			final int sampleX = (int) Math.floor(gridX + 0.5);
+			final int sampleY = (int) Math.floor(gridY + 0.5);
+			final Int2DRange.Floats samples = getTile(Math.floorDiv(sampleX, tileSize), Math.floorDiv(sampleY, tileSize));
+			return samples.get(sampleX, sampleY);
+		}
+		
+		final int floorX = (int) Math.floor(gridX);
+		final int floorY = (int) Math.floor(gridY);
+		final Int2DRange.Floats samples = getTile(Math.floorDiv(floorX, tileSize), Math.floorDiv(floorY, tileSize));
+		
+		final int index = samples.indexFor(floorX, floorY);
+		final float v00 = samples.data[index];
+		final float v10 = samples.data[index+1];
+		final float v01 = samples.data[index+samples.width];
+		final float v11 = samples.data[index+samples.width+1];
+		
+		final double tx = gridX - floorX;
+		final double ty = gridY - floorY;
+		final double low = v00 + (v10 - v00) * tx;
+		final double high = v01 + (v11 - v01) * tx;
+		return low + (high - low) * ty;
+	}
+	
+	private Int2DRange.Floats getTile(int tileX, int tileY) {
+		final long key = ConcurrentLongMap.pack(tileX, tileY);
+		Tile tile = tiles.get(key);
+		if (tile != null) {
+			hits.increment();
+			if (!tile.referenced) tile.referenced = true;
+			return tile.samples;
+		}
+		
+		misses.increment();
+		final int clears = this.clearCount;
+		final int minX = tileX*tileSize, minY = tileY*tileSize;
+		final Int2DRange.Floats samples = new Int2DRange.Floats(minX, minY, minX+tileSize, minY+tileSize);
+		source.fill(samples, minX*step, minY*step, step);
+		
+		final Tile created = new Tile(key, samples);
+		synchronized (evictionQueue) {
+			// A tile computed before clear() returned is not cached
+			if (clears != clearCount) return samples;
+			
+			final Tile existing = tiles.putIfAbsent(key, created);
+			if (existing != null) return existing.samples;
+			
+			evictionQueue.addLast(created);
+			while (evictionQueue.size() > maxTiles) {
+				final Tile victim = evictionQueue.pollFirst();
+				if (eviction == Eviction.LEAST_RECENTLY_USED && victim.referenced) {
+					// Give recently read tiles a second chance
+					victim.referenced = false;
+					evictionQueue.addLast(victim);
+					continue;
+				}
+				if (tiles.remove(victim.key, victim)) evictions.increment();
+			}
+		}
+		return samples;
+	}
+	
+	/**
+	 * Removes all cached tiles. Tiles still being computed by concurrent misses are returned to 
+	 * their callers but not cached. Statistics are not reset.
+	 */
+	public void clear() {
+		synchronized (evictionQueue) {
+			clearCount++;
+			evictionQueue.clear();
+			tiles.clear();
+		}
+	}
+	
+	public Function2D getSource() {
+		return source;
+	}
+	
+	public int getNumCachedTiles() {
+		return tiles.size();
+	}
+	
+	public long getHits() {
+		return hits.sum();
+	}
+	
+	public long getMisses() {
+		return misses.sum();
+	}
+	
+	public long getEvictions() {
+		return evictions.sum();
+	}
+	
+	/**
+	 * @return the fraction of tile lookups served from the cache, or 0 if there were none
+	 */
+	public double getHitRate() {
+		final long hits = getHits();
+		final long total = hits + getMisses();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+	
+	public void resetStatistics() {
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("TileCachedFunction2D[tiles=%d/%d, hits=%d, misses=%d, evictions=%d, hitRate=%.1f%%]", 
+				getNumCachedTiles(), maxTiles, getHits(), getMisses(), getEvictions(), getHitRate() * 100);
+	}
+	
+}
@@ -39,6 +39,7 @@ public class FractalNoise3D implements Function3D {
 	private final double scale, offset;
 	private final int octaves;
 	private final SimplexNoise3D[] generators;
+	private final double[] weights;	// Contribution of each octave, including normalization and the output scale
 	
 	private FractalNoise3D(long seed, double frequency, int octaves, double min, double max, double persistence) {
 		this.seed = seed;
@@ -58,6 +59,19 @@ public class FractalNoise3D implements Function3D {
 			generators[i] = new SimplexNoise3D(r.nextLong(), this.frequency*power);
 			power *= 2.0;
 		}
+		
+		// Octave i contributes persistence^i / sum(persistence^j), then remap to (min, max)
+		weights = new double[octaves];
+		double dividend = 0;
+		double multiple = 1;
+		for(int i = 0; i < octaves; i++) {
+			weights[i] = multiple;
+			dividend += multiple;
+			multiple *= this.persistence;
+		}
+		for(int i = 0; i < octaves; i++) {
+			weights[i] = weights[i] / dividend * scale;
+		}
 	}
 	
 //	public FractalNoise2D(long seed, double frequency, int octaves) {
@@ -71,15 +85,49 @@ public class FractalNoise3D implements Function3D {
 	@Override
 	public double getValue(double x, double y, double z) {
 		double value = 0;
-		double dividend = 0;
-		double multiple = 1;
 		for(int i = 0; i < octaves; i++) {
-			value += generators[i].getValue(x, y, z)*multiple;
-			dividend += multiple;
-			multiple *= this.persistence;
+			value += generators[i].getValue(x, y, z)*weights[i];
+		}
+		return value + offset;
+	}
+	
+	@Override
+	public void fill(double[] out, int sizeX, int sizeY, int sizeZ, double originX, double originY, double originZ, double step) {
+		final int size = sizeX*sizeY*sizeZ;
+		final double[] octave = new double[size];
+		
+		for (int k = 0; k < size; k++) out[k] = 0;
+		for(int i = 0; i < octaves; i++) {
+			generators[i].fill(octave, sizeX, sizeY, sizeZ, originX, originY, originZ, step);
+			final double weight = weights[i];
+			for (int k = 0; k < size; k++) {
+				out[k] += octave[k]*weight;
+			}
+		}
+		for (int k = 0; k < size; k++) {
+			out[k] += offset;
+		}
+	}
+	
+	/**
+	 * Single precision version of {@link #fill(double[], int, int, int, double, double, double, double)}, built on the batch kernels of the octaves
+	 */
+	public void fill(float[] out, int sizeX, int sizeY, int sizeZ, double originX, double originY, double originZ, double step) {
+		final int size = sizeX*sizeY*sizeZ;
+		final float[] octave = new float[size];
+		
+		for (int k = 0; k < size; k++) out[k] = 0;
+		for(int i = 0; i < octaves; i++) {
+			generators[i].fill(octave, sizeX, sizeY, sizeZ, originX, originY, originZ, step);
+			final float weight = (float) weights[i];
+			for (int k = 0; k < size; k++) {
+				out[k] += octave[k]*weight;
+			}
+		}
+		final float offset = (float) this.offset;
+		for (int k = 0; k < size; k++) {
+			out[k] += offset;
 		}
-		value /= dividend;
-		return value * scale + offset;
 	}
 
 }
@@ -4,4 +4,27 @@ public interface Function3D {
 
 	public double getValue(double x, double y, double z);
 	
+	/**
+	 * <p>Samples this function on a regular grid, so that out[(z*sizeX + x)*sizeY + y] = 
+	 * getValue(originX + x*step, originY + y*step, originZ + z*step). Columns along y are 
+	 * contiguous, matching the index order of Int3DRange.</p>
+	 * 
+	 * <p>Implementations override this to hoist per-column and per-call work out of the inner 
+	 * loop. The results must be identical to calling getValue() for each sample.</p>
+	 * 
+	 * @param out - destination array of at least sizeX*sizeY*sizeZ values
+	 */
+	public default void fill(double[] out, int sizeX, int sizeY, int sizeZ, double originX, double originY, double originZ, double step) {
+		int index = 0;
+		for (int z = 0; z < sizeZ; z++) {
+			final double sampleZ = originZ + z*step;
+			for (int x = 0; x < sizeX; x++) {
+				final double sampleX = originX + x*step;
+				for (int y = 0; y < sizeY; y++) {
+					out[index++] = getValue(sampleX, originY + y*step, sampleZ);
+				}
+			}
+		}
+	}
+	
 }
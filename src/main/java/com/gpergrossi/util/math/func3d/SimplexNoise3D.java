@@ -1,49 +1,71 @@
 package com.gpergrossi.util.math.func3d;
 
+import java.util.Arrays;
 import java.util.Random;
 
 import com.gpergrossi.util.math.SimplexNoise;
 
 public class SimplexNoise3D implements Function3D {
 
-	public static double MAX_OFFSET = 16777216.0f; //2^24
+	public static final double MAX_OFFSET = 256.0;
 	
-	double frequency = 1.0f / 64.0f;
-
-	// Manipulation of noise to allow seeded noise generation
-	double xOff, yOff, zOff;
-	double xDir, yDir, zDir;
+	// Each seed gets its own permutation table. The small offsets move the lattice vertices, 
+	// where the noise is always zero, so that octaves of a fractal do not share them.
+	final SimplexNoise noise;
+	final double frequency;
+	final double xOff, yOff, zOff;
 	
 	public SimplexNoise3D(long seed, double frequency) {
-		Random random = new Random(seed);
-		
-		int xDir = random.nextInt(2);
-		if(xDir == 0) xDir = 1;
-		int yDir = random.nextInt(2);
-		if(yDir == 0) yDir = 1;
-		int zDir = random.nextInt(2);
-		if(zDir == 0) zDir = 1;
-		
-		this.xOff = random.nextDouble()*MAX_OFFSET*xDir;
-		this.yOff = random.nextDouble()*MAX_OFFSET*yDir;
-		this.zOff = random.nextDouble()*MAX_OFFSET*zDir;
-		
-		this.xDir = random.nextInt(2);
-		if(this.xDir == 0) this.xDir = 1;
-		this.yDir = random.nextInt(2);
-		if(this.yDir == 0) this.yDir = 1;
-		this.zDir = random.nextInt(2);
-		if(this.zDir == 0) this.zDir = 1;
-
+		final Random random = new Random(seed);
+		this.noise = new SimplexNoise(seed);
 		this.frequency = frequency;
-		this.xDir *= frequency;
-		this.yDir *= frequency;
-		this.zDir *= frequency;
+		this.xOff = random.nextDouble()*MAX_OFFSET;
+		this.yOff = random.nextDouble()*MAX_OFFSET;
+		this.zOff = random.nextDouble()*MAX_OFFSET;
 	}
 
 	@Override
 	public double getValue(double x, double y, double z) {
-		return SimplexNoise.noise(x*xDir+xOff, y*yDir+yOff, z*zDir+zOff);
+		return noise.getValue(x*frequency+xOff, y*frequency+yOff, z*frequency+zOff);
+	}
+	
+	@Override
+	public void fill(double[] out, int sizeX, int sizeY, int sizeZ, double originX, double originY, double originZ, double step) {
+		final SimplexNoise noise = this.noise;
+		final double frequency = this.frequency, yOff = this.yOff;
+		int index = 0;
+		for (int z = 0; z < sizeZ; z++) {
+			final double noiseZ = (originZ + z*step)*frequency+zOff;
+			for (int x = 0; x < sizeX; x++) {
+				final double noiseX = (originX + x*step)*frequency+xOff;
+				for (int y = 0; y < sizeY; y++) {
+					out[index++] = noise.getValue(noiseX, (originY + y*step)*frequency+yOff, noiseZ);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Samples this function on a regular grid like {@link #fill(double[], int, int, int, double, double, double, double)}, 
+	 * using the single precision batch kernel of {@link SimplexNoise}. Values match getValue() to within 
+	 * float rounding.
+	 */
+	public void fill(float[] out, int sizeX, int sizeY, int sizeZ, double originX, double originY, double originZ, double step) {
+		final double[] noiseX = new double[sizeY];
+		final double[] noiseY = new double[sizeY];
+		final double[] noiseZ = new double[sizeY];
+		for (int y = 0; y < sizeY; y++) {
+			noiseY[y] = (originY + y*step)*frequency+yOff;
+		}
+		int index = 0;
+		for (int z = 0; z < sizeZ; z++) {
+			Arrays.fill(noiseZ, (originZ + z*step)*frequency+zOff);
+			for (int x = 0; x < sizeX; x++) {
+				Arrays.fill(noiseX, (originX + x*step)*frequency+xOff);
+				noise.getValues(noiseX, noiseY, noiseZ, out, index, sizeY);
+				index += sizeY;
+			}
+		}
 	}
 
 }
@@ -14,6 +14,12 @@ import com.gpergrossi.util.spacial.BinaryOctree.Entry;
  * <p>The octree is implemented as a binary tree with each node in the tree 
  * dividing its sub-space in half on the largest of the X, Y or Z dimensions.</p>
  * 
+ * <p>Queries never modify the tree and keep their statistics in per-query objects, so once 
+ * all entries are inserted the tree may be {@link #freeze() frozen} and shared by any number of 
+ * threads querying it concurrently without locks. The tree must be handed to those threads through 
+ * a safe publication (e.g. submitting the tasks to an executor after freezing). Insertion is not 
+ * thread safe.</p>
+ * 
  * @author Mortus
  *
  * @param <T> The class objects to be stored in this Octree
@@ -55,6 +61,7 @@ public class BinaryOctree<T extends Entry> {
 		
 		private final Double3D queryPoint;
 		private double distanceToQueryPoint;
+		private QueryStatistics statistics;
 		private T entry;
 		
 		public QueryResult(Double3D queryPoint, double distanceToQueryPoint, T entry) {
@@ -71,6 +78,13 @@ public class BinaryOctree<T extends Entry> {
 			return distanceToQueryPoint;
 		}
 		
+		/**
+		 * @return the statistics of the query that produced this result, or null if it was not produced by a query
+		 */
+		public QueryStatistics getStatistics() {
+			return statistics;
+		}
+		
 		public T getEntry() {
 			return entry;
 		}
@@ -79,6 +93,24 @@ public class BinaryOctree<T extends Entry> {
 	
 	
 	
+	/**
+	 * The work done by a single query
+	 */
+	public static class QueryStatistics {
+		
+		private int nodesSearched;
+		private int entriesTested;
+		
+		public int getNodesSearched() {
+			return nodesSearched;
+		}
+		
+		public int getEntriesTested() {
+			return entriesTested;
+		}
+		
+	}
+	
 	/**
 	 * The NodeType of an Octree object defines how the node's children
 	 * are partitioned compared to itself. Possible values are LEAF node (no children),
@@ -251,6 +283,8 @@ public class BinaryOctree<T extends Entry> {
 	protected BinaryOctree<T> lesserChild;
 	protected BinaryOctree<T> greaterChild;
 	
+	protected boolean frozen;
+	
 	/**
 	 * Construct an integer Octree with bounds defined by the provided Int3DRange.
 	 */
@@ -277,8 +311,8 @@ public class BinaryOctree<T extends Entry> {
 	 */
 	public int size() {
 		int size = this.items.size();
-		if (hasLesserChild()) size += getLesserChild().size();
-		if (hasGreaterChild()) size += getGreaterChild().size();
+		if (lesserChild != null) size += lesserChild.size();
+		if (greaterChild != null) size += greaterChild.size();
 		return size;
 	}
 	
@@ -289,8 +323,8 @@ public class BinaryOctree<T extends Entry> {
 	 */
 	public int numNodes() {
 		int numNodes = 1;
-		if (hasLesserChild()) numNodes += getLesserChild().numNodes();
-		if (hasGreaterChild()) numNodes += getGreaterChild().numNodes();
+		if (lesserChild != null) numNodes += lesserChild.numNodes();
+		if (greaterChild != null) numNodes += greaterChild.numNodes();
 		return numNodes;
 	}
 	
@@ -301,6 +335,7 @@ public class BinaryOctree<T extends Entry> {
 	 * @param object
 	 */
 	public void insert(T object) {
+		if (frozen) throw new IllegalStateException("Cannot insert into a frozen octree");
 		Int3DRange objRange = object.getRange();
 		int compare = split.compare(objRange, splitValue);
 		
@@ -313,30 +348,55 @@ public class BinaryOctree<T extends Entry> {
 		}
 	}
 
-	public static int DEBUG_NODES_SEARCHED = 0;
+	/**
+	 * Makes this tree and all of its nodes read-only. Later calls to insert() throw an IllegalStateException.
+	 * A frozen tree can be queried by many threads at once.
+	 */
+	public void freeze() {
+		frozen = true;
+		if (lesserChild != null) lesserChild.freeze();
+		if (greaterChild != null) greaterChild.freeze();
+	}
+	
+	public boolean isFrozen() {
+		return frozen;
+	}
 
 	public QueryResult<T> getClosest(Double3D point) {
-		DEBUG_NODES_SEARCHED = 0;
-		QueryResult<T> result = this.getClosest(point, new QueryResult<T>(point, Double.POSITIVE_INFINITY, null));
-		return result;
+		return getClosestWithin(point, Double.POSITIVE_INFINITY);
 	}
 	
+	public QueryResult<T> getClosestWithin(Double3D point, double maxDist) {
+		QueryResult<T> result = new QueryResult<T>(point, maxDist, null);
+		result.statistics = new QueryStatistics();
+		return this.getClosest(point, result);
+	}
+	
+	/**
+	 * Searches this node and its descendants, updating currentBest. Never modifies the tree.
+	 * A result created with the public constructor is given new statistics.
+	 */
 	protected QueryResult<T> getClosest(Double3D point, QueryResult<T> currentBest) {
-		DEBUG_NODES_SEARCHED++;
+		if (currentBest.statistics == null) currentBest.statistics = new QueryStatistics();
+		currentBest.statistics.nodesSearched++;
+		
+		// Read the children once; queries must not create them
+		final BinaryOctree<T> lesser = lesserChild, greater = greaterChild;
 		
 		int compare = split.compare(point, splitValue);
 		if (compare <= 0) {
-			if (hasLesserChild()) currentBest = getLesserChild().getClosest(point, currentBest);
+			if (lesser != null) currentBest = lesser.getClosest(point, currentBest);
 			if (-compare < currentBest.distanceToQueryPoint) {
-				if (hasGreaterChild()) currentBest = getGreaterChild().getClosest(point, currentBest);
+				if (greater != null) currentBest = greater.getClosest(point, currentBest);
 			}
 		} else {
-			if (hasGreaterChild()) currentBest = getGreaterChild().getClosest(point, currentBest);
+			if (greater != null) currentBest = greater.getClosest(point, currentBest);
 			if (compare-1 < currentBest.distanceToQueryPoint) {
-				if (hasLesserChild()) currentBest = getLesserChild().getClosest(point, currentBest);
+				if (lesser != null) currentBest = lesser.getClosest(point, currentBest);
 			}
 		}
 		
+		currentBest.statistics.entriesTested += items.size();
 		for (T item : items) {
 			double dist = item.getDistanceTo(point);
 			if (dist < currentBest.getDistanceToQueryPoint()) {
@@ -355,9 +415,8 @@ public class BinaryOctree<T extends Entry> {
 	 * @see getIntersects(Int3D, List&lt;QueryResult&lt;T&gt;&gt;) if you wish to provide a list object or do not need the list results.
 	 */
 	public List<QueryResult<T>> getIntersects(Double3D point) {
-		DEBUG_NODES_SEARCHED = 0;
 		List<QueryResult<T>> intersects = new ArrayList<>();
-		this.getIntersectsInternal(point, intersects);
+		this.getIntersects(point, intersects, new QueryStatistics());
 		return intersects;
 	}
 	
@@ -368,31 +427,48 @@ public class BinaryOctree<T extends Entry> {
 	 * @return true if there was an intersect, false otherwise
 	 */
 	public boolean getIntersects(Double3D point, List<QueryResult<T>> output) {
-		DEBUG_NODES_SEARCHED = 0;
-		return getIntersectsInternal(point, output);
+		return getIntersects(point, output, new QueryStatistics());
 	}
 	
-	public boolean getIntersectsInternal(Double3D point, List<QueryResult<T>> output) {
-		DEBUG_NODES_SEARCHED++;
+	/**
+	 * Get the objects in the OctTree that intersect with the given input point, recording the work done in the given statistics.
+	 * Every result added to the output refers to the same statistics object.
+	 * @param point - point on which to check for intersects
+	 * @param output - the list to add hits to, or null if you don't need the list. (A list will NOT be created)
+	 * @param statistics - statistics to update, must not be shared with a concurrent query
+	 * @return true if there was an intersect, false otherwise
+	 */
+	public boolean getIntersects(Double3D point, List<QueryResult<T>> output, QueryStatistics statistics) {
+		return getIntersectsInternal(point, output, statistics);
+	}
+	
+	private boolean getIntersectsInternal(Double3D point, List<QueryResult<T>> output, QueryStatistics statistics) {
+		statistics.nodesSearched++;
 		boolean added = false;
 		
+		// Read the children once; queries must not create them
+		final BinaryOctree<T> lesser = lesserChild, greater = greaterChild;
+		
 		int compare = split.compare(point, splitValue);
 		if (compare <= 0) {
-			if (hasLesserChild()) added |= getLesserChild().getIntersects(point, output);
+			if (lesser != null) added |= lesser.getIntersectsInternal(point, output, statistics);
 		} else {
-			if (hasGreaterChild()) added |= getGreaterChild().getIntersects(point, output);
+			if (greater != null) added |= greater.getIntersectsInternal(point, output, statistics);
 		}
 		
 		// No output list requested. Since something was intersected, return true
 		if (output == null && added == true) return true;
 		
 		for (T item : items) {
+			statistics.entriesTested++;
 			double dist = item.getDistanceTo(point);
 			if (dist > 0) continue;
 			
 			if (output != null) {
 				added = true;
-				output.add(new QueryResult<T>(point, dist, item));
+				QueryResult<T> result = new QueryResult<T>(point, dist, item);
+				result.statistics = statistics;
+				output.add(result);
 			} else {
 				// No output list requested. Since something was intersected, return true
 				return true;
@@ -406,6 +482,9 @@ public class BinaryOctree<T extends Entry> {
 		return (lesserChild != null);
 	}
 	
+	/**
+	 * Returns the lesser child, creating it if necessary. Only for use while inserting.
+	 */
 	protected BinaryOctree<T> getLesserChild() {
 		if (lesserChild == null) lesserChild = new BinaryOctree<>(this, split.chop(range, false));
 		return lesserChild;
@@ -415,6 +494,9 @@ public class BinaryOctree<T extends Entry> {
 		return (greaterChild != null);
 	}
 	
+	/**
+	 * Returns the greater child, creating it if necessary. Only for use while inserting.
+	 */
 	protected BinaryOctree<T> getGreaterChild() {
 		if (greaterChild == null) greaterChild = new BinaryOctree<>(this, split.chop(range, true));
 		return greaterChild;
@@ -0,0 +1,33 @@
+package com.gpergrossi.view.chunks;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * <p>Passed to {@link Chunk#load(CancellationToken)} and {@link Chunk#loadStage(int, CancellationToken)}
+ * so that long running loads can stop early once the chunk they are loading is no longer wanted.</p>
+ * 
+ * <p>A token remembers the chunk's load generation at the time the load started. Cancelling a load 
+ * increments the generation, so checking a token is a single volatile read and comparison.</p>
+ */
+public final class CancellationToken {
+
+	private final Chunk<?> chunk;
+	private final int generation;
+	
+	CancellationToken(Chunk<?> chunk, int generation) {
+		this.chunk = chunk;
+		this.generation = generation;
+	}
+	
+	public boolean isCancelled() {
+		return chunk.generation.get() != generation;
+	}
+	
+	/**
+	 * @throws CancellationException if this token has been cancelled
+	 */
+	public void checkCancelled() {
+		if (isCancelled()) throw new CancellationException(chunk+" load cancelled");
+	}
+	
+}
@@ -1,24 +1,58 @@
 package com.gpergrossi.view.chunks;
 
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public abstract class Chunk<T extends Chunk<T>> {
 	
 	protected ChunkManager<T> manager;
 	protected ChunkLoader<T> loader;
 	
-	long lastSeen;
-	boolean loaded, loading, unloading;
+	/*
+	 * Chunk states. Every transition is a compare-and-set on the state field, so
+	 * at most one thread can ever move a chunk into LOADING or UNLOADING.
+	 * 
+	 *   UNLOADED -> LOAD_QUEUED -> LOADING -> LOADED -> UNLOAD_QUEUED -> UNLOADING -> UNLOADED
+	 *   
+	 * A queued load or unload may be cancelled by moving back to the previous state.
+	 */
+	static final int UNLOADED = 0;
+	static final int LOAD_QUEUED = 1;
+	static final int LOADING = 2;
+	static final int LOADED = 3;
+	static final int UNLOAD_QUEUED = 4;
+	static final int UNLOADING = 5;
+	
+	volatile long lastSeen = -1;
+	volatile long loadQueuedNanos;	// When the current load was queued, for statistics
+	T agePrev, ageNext;		// Links in the manager's ChunkAgeList (guarded by the list's lock)
+	boolean ageListed;
+	final AtomicInteger state = new AtomicInteger(UNLOADED);
+	final AtomicInteger generation = new AtomicInteger();	// Incremented to cancel a load, see CancellationToken
 	protected final int chunkX, chunkY;
-	final Lock lock = new ReentrantLock(true);
+	
+	/*
+	 * One future per generation stage, installed by ChunkManager.requestStage(). Unloading 
+	 * replaces the whole array so that stale stage tasks can recognise they are out of date.
+	 */
+	volatile AtomicReferenceArray<CompletableFuture<Void>> stages;
+	
+	/*
+	 * Number of loads in progress that have requested stages of this chunk. Guarded by its own lock
+	 * rather than the chunk, so that requesting a stage never waits for a stage that is running.
+	 * Code holding both locks takes the chunk first.
+	 */
+	private final Object stageHoldLock = new Object();
+	private int stageHolds;
 	
 	public Chunk(ChunkManager<T> manager, int chunkX, int chunkY) {
 		this.manager = manager;
 		this.loader = manager.getLoader();
 		this.chunkX = chunkX;
 		this.chunkY = chunkY;
-		loaded = false;
+		this.stages = new AtomicReferenceArray<>(Math.max(1, loader.getNumStages()));
 	}
 	
 	public ChunkLoader<T> getChunkLoader() {
@@ -29,41 +63,213 @@ public abstract class Chunk<T extends Chunk<T>> {
 		return manager;
 	}
 	
+	/**
+	 * Called once all generation stages of this chunk have completed. See: loadStage()
+	 */
 	public abstract void load();
+	
+	/**
+	 * Frees everything created by load(). Also called to discard a load that was cancelled
+	 * part way through, so it must tolerate a partially loaded chunk.
+	 */
 	public abstract void unload();
 	
+	/**
+	 * Loads this chunk. Long running loads should override this method and call 
+	 * token.checkCancelled() periodically; the default implementation calls load().
+	 */
+	public void load(CancellationToken token) {
+		load();
+	}
+	
+	/**
+	 * Called before unload() when the manager has a {@link ChunkStore}. The returned data is 
+	 * written to the store in the background, see {@link ChunkManager#setStore(ChunkStore, int)}.
+	 * @return the data to persist, or null if there is nothing to save (the default)
+	 */
+	protected byte[] save() {
+		return null;
+	}
+	
+	/**
+	 * @return the data last saved for this chunk, or null if there is none or the manager has no store
+	 */
+	protected byte[] loadSaved() {
+		return manager.getSavedData(chunkX, chunkY);
+	}
+	
+	/**
+	 * <p>Runs one generation stage of this chunk. Stages run in order from 0 to 
+	 * {@link ChunkLoader#getNumStages()}-1, and stage N of this chunk only runs after stage N-1 
+	 * of every chunk within {@link ChunkLoader#getStageRadius(int)} of it (including itself) has 
+	 * completed, so it may read the results of that stage from its neighbours.</p>
+	 * 
+	 * <p>Neighbours may be generated up to an earlier stage without ever being loaded themselves.
+	 * Once no load in progress needs their stages any more, unload() is called to discard them.
+	 * The default implementation does nothing, for chunks that do all their work in load().</p>
+	 * 
+	 * <p>The token belongs to the load that requested this stage. A stage that is cancelled part way
+	 * through (by throwing from token.checkCancelled()) is run again from the start if it is requested again.</p>
+	 */
+	protected void loadStage(int stage, CancellationToken token) {}
+	
+	/**
+	 * Runs a stage on behalf of a stage task, unless this chunk has been unloaded since the task was created
+	 */
+	synchronized void runStage(AtomicReferenceArray<CompletableFuture<Void>> stageFutures, int stage, CancellationToken token) {
+		if (stages != stageFutures) return;
+		token.checkCancelled();
+		loadStage(stage, token);
+	}
+	
+	/**
+	 * Called by a load before it requests any stage of this chunk. The stages are kept until every
+	 * load that holds them has called releaseStages(). Must be called before reading {@link #stages}.
+	 */
+	void holdStages() {
+		synchronized (stageHoldLock) {
+			stageHolds++;
+		}
+	}
+	
+	/**
+	 * Called by a load that held this chunk's stages once it has loaded, failed or been cancelled.
+	 * When the last hold is released and this chunk has not been loaded, its stages are discarded.
+	 */
+	void releaseStages() {
+		synchronized (stageHoldLock) {
+			if (--stageHolds > 0) return;
+		}
+		synchronized (this) {
+			final int current = state.get();
+			if (current != UNLOADED && current != LOAD_QUEUED && current != LOADING) return;
+			synchronized (stageHoldLock) {
+				// Held again while waiting for the chunk, the new holder still needs the stages
+				if (stageHolds > 0 || !hasStages()) return;
+				stages = new AtomicReferenceArray<>(stages.length());
+			}
+			unload();
+		}
+	}
+	
+	private boolean hasStages() {
+		final AtomicReferenceArray<CompletableFuture<Void>> current = stages;
+		for (int i = 0; i < current.length(); i++) {
+			if (current.get(i) != null) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * @return a token for a new load of this chunk, cancelled by the next call to cancelLoad()
+	 */
+	CancellationToken newLoadToken() {
+		return new CancellationToken(this, generation.get());
+	}
+	
+	/**
+	 * Cancels the load in progress, if any. The loading worker discards its result.
+	 */
+	void cancelLoad() {
+		generation.incrementAndGet();
+	}
+	
+	boolean casState(int expect, int update) {
+		return state.compareAndSet(expect, update);
+	}
+	
+	int getState() {
+		return state.get();
+	}
+	
 	boolean canLoad() {
-		return !loaded && !loading;
+		return state.get() == UNLOADED;
 	}
 	
 	boolean canUnload() {
-		return loaded && !unloading;
+		return state.get() == LOADED;
 	}
 	
+	/**
+	 * @return true if this chunk has finished loading and has not started unloading
+	 */
 	boolean isLoaded() {
-		return loaded;
+		final int current = state.get();
+		return current == LOADED || current == UNLOAD_QUEUED;
 	}
 
-	protected synchronized void internalLoad() {
-		if (this.loaded) {
-			System.err.println(this+" already loaded!");
-			return;
+	/**
+	 * Called by a worker that has moved this chunk from LOAD_QUEUED to LOADING. If the token
+	 * is cancelled before or during the load, the chunk is returned to UNLOADED instead. If the
+	 * load throws, the partial result is discarded and the exception is rethrown while the chunk
+	 * is still LOADING, so the manager can report it and abort the load.
+	 * @return true if the chunk is now LOADED
+	 */
+	protected synchronized boolean internalLoad(CancellationToken token) {
+		if (state.get() != LOADING) {
+			System.err.println(this+" is not loading!");
+			return false;
 		}
-		load();
-		loaded = true;
-		loading = false;
+		if (token.isCancelled()) {
+			abortLoad();
+			return false;
+		}
+		try {
+			load(token);
+			token.checkCancelled();
+		} catch (CancellationException e) {
+			// Discard the partial or stale result
+			unload();
+			stages = new AtomicReferenceArray<>(stages.length());
+			abortLoad();
+			return false;
+		} catch (RuntimeException e) {
+			unload();
+			stages = new AtomicReferenceArray<>(stages.length());
+			throw e;
+		}
+		state.set(LOADED);
 		this.notifyAll();
+		return true;
 	}
 	
-	protected synchronized void internalUnload() {
-		if (!this.loaded) {
-			System.err.println(this+" already unloaded!");
-			return;
+	/**
+	 * Returns a LOADING chunk to UNLOADED without loading it
+	 */
+	synchronized void abortLoad() {
+		state.compareAndSet(LOADING, UNLOADED);
+		this.notifyAll();
+	}
+	
+	/**
+	 * Called by an unloading thread that has moved this chunk from UNLOAD_QUEUED to UNLOADING. 
+	 * The chunk's saved data is queued for writing before the chunk becomes UNLOADED, so a 
+	 * reload always sees it. Queuing may block while the write-behind buffer is full.
+	 * <p>
+	 * A chunk whose stages are held by a load in progress is not unloaded, because that load may
+	 * still be reading them. It stays UNLOADING and the caller is expected to put it back.
+	 * 
+	 * @return true if the chunk was unloaded, false if its stages are held
+	 */
+	protected synchronized boolean internalUnload(ChunkWriteBehind writeBehind) throws InterruptedException {
+		if (state.get() != UNLOADING) {
+			System.err.println(this+" is not unloading!");
+			return false;
+		}
+		if (writeBehind != null) {
+			final byte[] data = save();
+			if (data != null) writeBehind.write(chunkX, chunkY, data);
+		}
+		synchronized (stageHoldLock) {
+			if (stageHolds > 0) return false;
+			// Later holders install fresh stages, whose tasks wait for this unload to finish
+			stages = new AtomicReferenceArray<>(stages.length());
 		}
 		unload();
-		loaded = false;
-		unloading = false;
+		generation.incrementAndGet();
+		state.set(UNLOADED);
 		this.notifyAll();
+		return true;
 	}
 	
 	@Override
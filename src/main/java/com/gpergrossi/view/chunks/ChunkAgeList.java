@@ -0,0 +1,121 @@
+package com.gpergrossi.view.chunks;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>An intrusive doubly linked list of loaded chunks ordered exactly by {@link Chunk#lastSeen}, 
+ * oldest first. The links are stored in the chunks themselves, so adding, removing and moving 
+ * a chunk are constant time and never allocate. A chunk can be in at most one ChunkAgeList.</p>
+ * 
+ * <p>Touching a chunk moves it to the tail, so expiring old chunks only visits the chunks 
+ * that actually expire.</p>
+ * 
+ * <p>This class is not thread safe.</p>
+ */
+public class ChunkAgeList<T extends Chunk<T>> implements Iterable<T> {
+
+	private T head, tail;
+	private int size;
+	
+	public int size() {
+		return size;
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	public boolean contains(T chunk) {
+		return chunk.ageListed;
+	}
+	
+	/**
+	 * @return the chunk with the oldest lastSeen value, or null if the list is empty
+	 */
+	public T peekOldest() {
+		return head;
+	}
+	
+	/**
+	 * Adds the chunk in order of its lastSeen value. Chunks are usually the newest and are appended
+	 * to the tail, but a chunk that has not been touched recently is inserted before newer ones.
+	 */
+	public void add(T chunk) {
+		if (chunk.ageListed) throw new IllegalStateException(chunk+" is already in an age list");
+		
+		T after = tail;
+		while (after != null && after.lastSeen > chunk.lastSeen) after = after.agePrev;
+		link(chunk, after);
+	}
+	
+	/**
+	 * Moves a listed chunk to the tail after its lastSeen value has been set to the newest 
+	 * iteration. Does nothing if the chunk is not in the list.
+	 */
+	public void touch(T chunk) {
+		if (!chunk.ageListed || chunk == tail) return;
+		unlink(chunk);
+		link(chunk, tail);
+	}
+	
+	/**
+	 * @return true if the chunk was in the list
+	 */
+	public boolean remove(T chunk) {
+		if (!chunk.ageListed) return false;
+		unlink(chunk);
+		return true;
+	}
+	
+	/**
+	 * Inserts the chunk after the given chunk, or at the head if after is null
+	 */
+	private void link(T chunk, T after) {
+		final T before = (after == null) ? head : after.ageNext;
+		chunk.agePrev = after;
+		chunk.ageNext = before;
+		if (after == null) head = chunk;
+		else after.ageNext = chunk;
+		if (before == null) tail = chunk;
+		else before.agePrev = chunk;
+		chunk.ageListed = true;
+		size++;
+	}
+	
+	private void unlink(T chunk) {
+		final T prev = chunk.agePrev, next = chunk.ageNext;
+		if (prev == null) head = next;
+		else prev.ageNext = next;
+		if (next == null) tail = prev;
+		else next.agePrev = prev;
+		chunk.agePrev = null;
+		chunk.ageNext = null;
+		chunk.ageListed = false;
+		size--;
+	}
+	
+	/**
+	 * Iterates from the oldest to the newest chunk. The list must not be modified during iteration.
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			T next = head;
+			
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+			
+			@Override
+			public T next() {
+				if (next == null) throw new NoSuchElementException();
+				final T current = next;
+				next = current.ageNext;
+				return current;
+			}
+		};
+	}
+	
+}
@@ -4,6 +4,10 @@ public abstract class ChunkLoader<T extends Chunk<T>> {
 
 	ChunkManager<T> manager;
 	
+	/**
+	 * Returns the chunk object at the given chunk coordinates, creating it if necessary. Must be 
+	 * thread safe: with more than one generation stage, workers look up neighbouring chunks.
+	 */
 	public abstract T getChunk(int chunkX, int chunkY);
 
 	public void setManager(ChunkManager<T> manager) {
@@ -22,4 +26,19 @@ public abstract class ChunkLoader<T extends Chunk<T>> {
 		return 200;
 	}
 	
+	/**
+	 * @return the number of generation stages every chunk goes through before load(). See: Chunk.loadStage()
+	 */
+	public int getNumStages() {
+		return 1;
+	}
+	
+	/**
+	 * @return the radius (in chunks) of the neighbourhood whose previous stage must be 
+	 * complete before the given stage of a chunk can run. Not used for stage 0.
+	 */
+	public int getStageRadius(int stage) {
+		return 1;
+	}
+	
 }
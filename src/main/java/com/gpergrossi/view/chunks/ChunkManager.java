@@ -1,62 +1,78 @@
 package com.gpergrossi.view.chunks;
 
 import java.awt.Point;
-import java.util.Comparator;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * <p>Schedules the loading and unloading of chunks on a pool of worker threads.</p>
+ * 
+ * <p>Loading workers run on a work-stealing {@link ForkJoinPool}. Every queued load submits one 
+ * job to the pool; a job takes the best chunk from the loading queue when it runs, so chunks are 
+ * processed in priority order regardless of which worker picks up the job. Unloads run the same 
+ * way on a separate pool of low priority threads, so a burst of unloads never delays loading. Both queues are {@link DistanceBucketQueue}s, ordered exactly 
+ * by distance from {@link #center}.</p>
+ * 
+ * <p>Chunk state changes are compare-and-set operations on {@link Chunk#state}, so cancelling a 
+ * queued load only needs a state change: the stale queue entry is skipped when a job reaches it.</p>
+ * 
+ * <p>If the loader declares more than one generation stage, a chunk is generated as a graph of 
+ * (chunk, stage) tasks. Each task is submitted to the pool only once stage N-1 of every chunk 
+ * in its neighbourhood is complete, so neighbouring chunks generate in parallel. See: 
+ * {@link Chunk#loadStage(int, CancellationToken)}, {@link ChunkLoader#getStageRadius(int)}</p>
+ * 
+ * <p>Loads that are already running when their chunk leaves the view are cancelled through the 
+ * chunk's {@link CancellationToken}. Cancellation is cooperative: it is checked between stages 
+ * and wherever the chunk's own load code checks it, and a cancelled result is discarded.</p>
+ * 
+ * <p>If a {@link ChunkStore} is set, the data returned by {@link Chunk#save()} is written to it 
+ * through a bounded {@link ChunkWriteBehind} buffer when a chunk unloads.</p>
+ * 
+ * <p>Queue depths, load latency, job times, lock contention and worker utilisation are recorded
+ * in {@link ChunkManagerStatistics} and can be read with {@link #getMetricsSnapshot()}.</p>
+ */
 public abstract class ChunkManager<T extends Chunk<T>> {
 
-	protected final Comparator<T> OLDEST_CHUNK_FIRST = new Comparator<T>() {
-		@Override
-		public int compare(T o1, T o2) {
-			return (int) (o1.lastSeen - o2.lastSeen);
-		}
-	};
-	
-	protected final Comparator<T> CLOSEST_CHUNK_FIRST = new Comparator<T>() {
-		@Override
-		public int compare(T o1, T o2) {
-			Point pt1 = new Point(o1.chunkX, o1.chunkY);
-			Point pt2 = new Point(o2.chunkX, o2.chunkY);
-			double dist1 = pt1.distanceSq(center);
-			double dist2 = pt2.distanceSq(center);
-			return (int) (dist1 - dist2);
-		}
-	};
-	
-	protected final Comparator<T> FARTHEST_CHUNK_FIRST = new Comparator<T>() {
-		@Override
-		public int compare(T o1, T o2) {
-			Point pt1 = new Point(o1.chunkX, o1.chunkY);
-			Point pt2 = new Point(o2.chunkX, o2.chunkY);
-			double dist1 = pt1.distanceSq(center);
-			double dist2 = pt2.distanceSq(center);
-			return (int) (dist2 - dist1);
-		}
-	};
-
-	protected Thread[] workers;
-	protected Object workAvailable = new Object();	// Notification object to tell worker threads of work
-	protected boolean workersRunning = false;			// Running condition for quick kill of worker threads
-	protected long currentViewIteration;				// Used to keep track of how long a chunk has been out of view
-	protected Point center = new Point(0,0);
+	protected ForkJoinPool workers;
+	protected final int numWorkers;
+	protected ExecutorService unloadWorkers;
+	protected final int numUnloadWorkers;
+	
+	protected ChunkStore store;
+	protected int writeBehindCapacity;
+	protected volatile ChunkWriteBehind writeBehind;
+	protected volatile boolean workersRunning = false;	// Running condition for quick kill of worker threads
+	protected volatile long currentViewIteration;		// Used to keep track of how long a chunk has been out of view
+	protected volatile Point center = new Point(0,0);
 	
 	
 	protected ChunkLoader<T> loader;
 	protected double chunkSize;
 	
-	protected final Queue<T> loadingQueue;		// Queue of chunks to be loaded (Use lock)
-	protected Lock loadingQueueLock = new ReentrantLock(true);
+	protected final DistanceBucketQueue<T> loadingQueue;		// Queue of chunks to be loaded, closest first (guarded by loadingQueueLock)
+	protected final DistanceBucketQueue<T> unloadingQueue;	// Queue of chunks to be unloaded, farthest first (guarded by unloadingQueueLock)
+	protected final Lock loadingQueueLock = new ReentrantLock();
+	protected final Lock unloadingQueueLock = new ReentrantLock();
+	protected final Set<T> loadingChunks;					// Chunks currently being loaded by a worker
 	
-	protected final Queue<T> unloadingQueue;	// Queue of chunks to be unloaded (Use lock)
-	protected Lock unloadingQueueLock = new ReentrantLock(true);
+	protected final ChunkAgeList<T> loadedChunks;		// Loaded chunks, oldest lastSeen first (guarded by loadedChunksLock)
+	protected Lock loadedChunksLock = new ReentrantLock();
 	
-	protected final Queue<T> loadedChunks;		// List of chunk sorted by age
-	protected Lock loadedChunksLock = new ReentrantLock(true);	
+	protected final ChunkManagerStatistics statistics = new ChunkManagerStatistics();
 	
 	public ChunkManager(ChunkLoader<T> loader) {
 		this(loader, 4, 40);
@@ -69,15 +85,12 @@ public abstract class ChunkManager<T extends Chunk<T>> {
 	public ChunkManager(ChunkLoader<T> loader, int numWorkers, int initialQueueSize) {
 		this.loader = loader;
 		this.chunkSize = loader.getChunkSize();
-		loadingQueue = new StochasticPriorityQueue<T>(initialQueueSize, CLOSEST_CHUNK_FIRST);
-		unloadingQueue = new StochasticPriorityQueue<T>(initialQueueSize, FARTHEST_CHUNK_FIRST);
-		loadedChunks = new StochasticPriorityQueue<T>(initialQueueSize, OLDEST_CHUNK_FIRST);
-		workers = new Thread[numWorkers];
-		for (int i = 0; i < numWorkers; i++) {
-			workers[i] = new Thread(new WorkerTask<T>(this));
-			workers[i].setName("ChunkManager worker thread #"+(i+1)+"/"+numWorkers+"");
-			workers[i].setPriority(Thread.MIN_PRIORITY);
-		}
+		this.numWorkers = numWorkers;
+		this.numUnloadWorkers = Math.max(1, numWorkers/2);
+		loadingQueue = new DistanceBucketQueue<T>(false);
+		unloadingQueue = new DistanceBucketQueue<T>(true);
+		loadingChunks = ConcurrentHashMap.newKeySet();
+		loadedChunks = new ChunkAgeList<T>();
 		currentViewIteration = 0;
 		this.loader.setManager(this);
 	}
@@ -100,14 +113,70 @@ public abstract class ChunkManager<T extends Chunk<T>> {
 		return loader;
 	}
 	
+	/**
+	 * Sets the store that unloading chunks save their data to. Must be called while the workers 
+	 * are stopped. The store is not closed by this manager.
+	 * @param store - the store, or null to stop saving chunks
+	 * @param writeBehindCapacity - maximum number of unloaded chunks waiting to be written before
+	 * unloading threads block
+	 */
+	public void setStore(ChunkStore store, int writeBehindCapacity) {
+		if (workersRunning) throw new IllegalStateException("Cannot change the store while the workers are running");
+		this.store = store;
+		this.writeBehindCapacity = writeBehindCapacity;
+	}
+	
+	public ChunkStore getStore() {
+		return store;
+	}
+	
+	/**
+	 * @return the data last saved for the chunk at the given chunk coordinates, or null if there is none. See: Chunk.loadSaved()
+	 */
+	public byte[] getSavedData(int chunkX, int chunkY) {
+		final ChunkWriteBehind writer = writeBehind;
+		if (writer != null) return writer.read(chunkX, chunkY);
+		if (store != null) return store.read(chunkX, chunkY);
+		return null;
+	}
+	
+	public ChunkManagerStatistics getStatistics() {
+		return statistics;
+	}
+	
+	/**
+	 * @return the current statistics together with the current queue depths
+	 */
+	public ChunkManagerStatistics.Snapshot getMetricsSnapshot() {
+		int loadingQueueSize, unloadingQueueSize;
+		lock(loadingQueueLock);
+		try {
+			loadingQueueSize = loadingQueue.size();
+		} finally {
+			loadingQueueLock.unlock();
+		}
+		lock(unloadingQueueLock);
+		try {
+			unloadingQueueSize = unloadingQueue.size();
+		} finally {
+			unloadingQueueLock.unlock();
+		}
+		final ChunkWriteBehind writer = writeBehind;
+		final int writeBehindPending = (writer == null) ? 0 : writer.getNumPending();
+		return new ChunkManagerStatistics.Snapshot(statistics, loadingQueueSize, unloadingQueueSize, loadingChunks.size(), 
+				getNumLoaded(), writeBehindPending, numWorkers, numUnloadWorkers);
+	}
+	
 	/**
 	 * @return How many chunks are loaded?
 	 */
 	public int getNumLoaded() {
-		acquire("loadedChunks", loadedChunksLock);
-		int num = loadedChunks.size();
-		release("loadedChunks", loadedChunksLock);
-		return num;
+		lock(loadedChunksLock);
+		try {
+			return loadedChunks.size();
+		} finally {
+			loadedChunksLock.unlock();
+		}
 	}
 	
 	/**
@@ -148,8 +217,19 @@ public abstract class ChunkManager<T extends Chunk<T>> {
 	 * until they have gone some number of iterations without being touched. See: ChunkLoader.getMaxAge()
 	 */
 	public void touch(T chunk) {
-		chunk.lastSeen = currentViewIteration;
-		if (!chunk.isLoaded()) queueLoad(chunk);
+		final long iteration = currentViewIteration;
+		if (chunk.lastSeen == iteration) return;
+		chunk.lastSeen = iteration;
+		
+		if (chunk.isLoaded()) {
+			lock(loadedChunksLock);
+			try {
+				loadedChunks.touch(chunk);
+			} finally {
+				loadedChunksLock.unlock();
+			}
+		}
+		if (chunk.getState() != Chunk.LOADED) queueLoad(chunk);
 	}
 	
 	/**
@@ -163,27 +243,41 @@ public abstract class ChunkManager<T extends Chunk<T>> {
 		touchAll();
 		
 		// Unload old chunks
-		acquire("loadedChunks", loadedChunksLock);
-		long maxAge = loader.getMaxChunkAge();
-		T chunk = loadedChunks.peek();
-		while (chunk != null && (currentViewIteration - chunk.lastSeen) > maxAge) {
-			queueUnload(chunk);
-			loadedChunks.remove(chunk);
-			chunk = loadedChunks.peek();
+		lock(loadedChunksLock);
+		try {
+			long maxAge = loader.getMaxChunkAge();
+			T chunk = loadedChunks.peekOldest();
+			while (chunk != null && (currentViewIteration - chunk.lastSeen) > maxAge) {
+				loadedChunks.remove(chunk); // In case it is not LOADED, queueUnload() removes it otherwise
+				queueUnload(chunk);
+				chunk = loadedChunks.peekOldest();
+			}
+		} finally {
+			loadedChunksLock.unlock();
+		}
+		
+		// Off-screen chunks still in the loading queue are dropped when a worker reaches them
+		lock(loadingQueueLock);
+		try {
+			loadingQueue.setCenter(center.x, center.y);
+		} finally {
+			loadingQueueLock.unlock();
 		}
-		release("loadedChunks", loadedChunksLock);
 		
-		// Stop loading off-screen chunks
-		acquire("loadingQueue", loadingQueueLock);
-		Iterator<T> iterator = loadingQueue.iterator();
-		while (iterator.hasNext()) {
-			chunk = iterator.next();
+		// Stop loading off-screen chunks that are already being loaded
+		for (T chunk : loadingChunks) {
 			if ((currentViewIteration - chunk.lastSeen) > 0) {
-				chunk.loading = false;
-				iterator.remove();
+				chunk.cancelLoad();
+				loadingChunks.remove(chunk);
+				statistics.loadsCancelled.increment();
 			}
 		}
-		release("loadingQueue", loadingQueueLock);
+		lock(unloadingQueueLock);
+		try {
+			unloadingQueue.setCenter(center.x, center.y);
+		} finally {
+			unloadingQueueLock.unlock();
+		}
 	}
 
 	protected Point getChunkCoordinate(double x, double y) {
@@ -194,262 +288,402 @@ public abstract class ChunkManager<T extends Chunk<T>> {
 	}
 	
 	protected void queueLoad(T chunk) {
-		if (!chunk.canLoad()) return;
-		
-		acquire("unloadingQueue/"+chunk, unloadingQueueLock, chunk.lock);
-		
-		if (unloadingQueue.remove(chunk)) {
-			chunk.unloading = false;
+		// Cancel a pending unload, the chunk is still loaded
+		if (chunk.casState(Chunk.UNLOAD_QUEUED, Chunk.LOADED)) {
+			debug("Cancelled unloading "+chunk);
+			statistics.unloadsCancelled.increment();
+			addLoaded(chunk);
+			return;
 		}
 		
-		release("unloadingQueue/"+chunk, unloadingQueueLock, chunk.lock);
-		acquire("loadingQueue/"+chunk, loadingQueueLock, chunk.lock);
+		if (!chunk.casState(Chunk.UNLOADED, Chunk.LOAD_QUEUED)) return;
+		chunk.loadQueuedNanos = System.nanoTime();
+		statistics.loadsQueued.increment();
 		
-		if (!loadingQueue.contains(chunk) && chunk.canLoad()) {
-			chunk.loading = true;
+		lock(loadingQueueLock);
+		try {
 			loadingQueue.offer(chunk);
-			debug("Added "+chunk+" to load queue");
-			synchronized (workAvailable) {
-				workAvailable.notify();
-			}
+		} finally {
+			loadingQueueLock.unlock();
 		}
-
-		release("loadingQueue/"+chunk, loadingQueueLock, chunk.lock);
+		debug("Added "+chunk+" to load queue");
+		submitLoadJob();
 	}
 	
 	protected void queueUnload(T chunk) {
-		if (!chunk.canUnload()) return;
+		// Cancel a pending load, the chunk was never loaded
+		if (chunk.casState(Chunk.LOAD_QUEUED, Chunk.UNLOADED)) {
+			debug("Cancelled loading "+chunk);
+			statistics.loadsDropped.increment();
+			return;
+		}
 		
-		acquire("loadingQueue/"+chunk, loadingQueueLock, chunk.lock);
+		if (!chunk.casState(Chunk.LOADED, Chunk.UNLOAD_QUEUED)) return;
+		statistics.unloadsQueued.increment();
 		
-		if (loadingQueue.remove(chunk)) {
-			chunk.loading = false;
+		lock(loadedChunksLock);
+		try {
+			loadedChunks.remove(chunk);
+		} finally {
+			loadedChunksLock.unlock();
 		}
-
-		release("loadingQueue/"+chunk, loadingQueueLock, chunk.lock);
-		acquire("unloadingQueue/"+chunk, unloadingQueueLock, chunk.lock);
 		
-		if (!unloadingQueue.contains(chunk) && chunk.canUnload()) {
-			chunk.unloading = true;
+		lock(unloadingQueueLock);
+		try {
 			unloadingQueue.offer(chunk);
-			debug("Added "+chunk+" to unload queue");
-			synchronized (workAvailable) {
-				workAvailable.notify();
-			}
+		} finally {
+			unloadingQueueLock.unlock();
 		}
-
-		release("unloadingQueue/"+chunk, unloadingQueueLock, chunk.lock);
+		debug("Added "+chunk+" to unload queue");
+		submitUnloadJob();
 	}
 	
 	private void addLoaded(T chunk) {
-		acquire("loadedChunks", loadedChunksLock);
-		loadedChunks.offer(chunk);
-		release("loadedChunks", loadedChunksLock);
+		lock(loadedChunksLock);
+		try {
+			if (!loadedChunks.contains(chunk)) loadedChunks.add(chunk);
+		} finally {
+			loadedChunksLock.unlock();
+		}
+	}
+	
+	/**
+	 * Acquires the lock, recording the time spent waiting if it is contended
+	 */
+	private void lock(Lock lock) {
+		if (lock.tryLock()) return;
+		final long start = System.nanoTime();
+		lock.lock();
+		statistics.lockWait(System.nanoTime() - start);
 	}
 	
 	private static void debug(String string) {
 		//System.out.println("[ChunkManager] "+string);
 	}
 	
-	protected static void acquire(String resource, Lock... locks) {
-		boolean allAcquired = false;
-		debug(Thread.currentThread().getName()+" acquiring "+resource+" ("+locks.length+" locks)");
-		int sleepTime = 50;
-		while (!allAcquired) {
-			int i;
-			allAcquired = true;
-			for (i = 0; i < locks.length; i++) {
-				try {
-					boolean acquired = locks[i].tryLock(50, TimeUnit.MILLISECONDS);
-					if (!acquired) {
-						allAcquired = false;
-						break;
-					}
-				} catch(InterruptedException e) {
-					e.printStackTrace();
-				}
+	/**
+	 * Submits one job to the loading pool. Each job processes at most one queued chunk, and 
+	 * a job is submitted for every chunk offered to a queue, so no queued chunk is ever stranded.
+	 */
+	private void submitLoadJob() {
+		final ForkJoinPool pool = workers;
+		if (!workersRunning || pool == null) return; // start() submits jobs for anything queued before it
+		pool.execute(this::runLoadJob);
+	}
+	
+	/**
+	 * Submits one job to the unloading pool, see submitLoadJob()
+	 */
+	private void submitUnloadJob() {
+		final ExecutorService pool = unloadWorkers;
+		if (!workersRunning || pool == null) return;
+		pool.execute(this::runUnloadJob);
+	}
+	
+	/**
+	 * Takes the farthest chunk from the unloading queue and unloads it. Queue entries whose 
+	 * chunk has changed state since it was queued (i.e. cancelled) are discarded.
+	 */
+	private void runUnloadJob() {
+		if (!workersRunning) return;
+		final long start = System.nanoTime();
+		try {
+			unloadNext();
+		} finally {
+			statistics.unloadJob(System.nanoTime() - start);
+		}
+	}
+	
+	private void unloadNext() {
+		T chunk;
+		while ((chunk = poll(unloadingQueue, unloadingQueueLock)) != null) {
+			if (!chunk.casState(Chunk.UNLOAD_QUEUED, Chunk.UNLOADING)) continue;
+			final boolean unloaded;
+			try {
+				unloaded = chunk.internalUnload(writeBehind);
+			} catch (InterruptedException e) {
+				// Stopped while waiting for the write-behind buffer, the chunk stays loaded
+				chunk.casState(Chunk.UNLOADING, Chunk.LOADED);
+				addLoaded(chunk);
+				return;
 			}
-			if (!allAcquired) {
-				Lock failed = locks[i];
-				for (i--; i >= 0; i--) {
-					locks[i].unlock();
-				}
-				debug(Thread.currentThread().getName()+" acquire failed. ("+failed+") Sleeping...");
-				try {
-					Thread.sleep(sleepTime);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-				sleepTime *= 2;
-			} else {
-				sleepTime = 50;
+			if (!unloaded) {
+				// A neighbour's load is reading this chunk, update() queues it again once it ages out
+				chunk.casState(Chunk.UNLOADING, Chunk.LOADED);
+				addLoaded(chunk);
+				debug(chunk+" unload deferred, stages held.");
+				return;
 			}
+			statistics.unloadsCompleted.increment();
+			debug(chunk+" unloaded.");
+			return;
 		}
 	}
 	
-	protected static void release(String resource, Lock... locks) {
-		debug(Thread.currentThread().getName()+" releasing "+resource+" ("+locks.length+" locks)");
-		for (int i = locks.length-1; i >= 0; i--) {
-			locks[i].unlock();
+	/**
+	 * Takes the closest chunk from the loading queue and loads it. Queue entries whose chunk 
+	 * has changed state since it was queued (i.e. cancelled) are discarded.
+	 */
+	private void runLoadJob() {
+		if (!workersRunning) return;
+		final long start = System.nanoTime();
+		boolean staged = false;
+		try {
+			staged = loadNext(start);
+		} finally {
+			// A load with several stages records its job time once it is over, see loadStages()
+			if (staged) statistics.loadBusyNanos.add(System.nanoTime() - start);
+			else statistics.loadJob(System.nanoTime() - start);
 		}
 	}
 	
-	private void startWorkers() {
-		debug("Starting worker threads...");
-		workersRunning = true;
-		for (int i = 0; i < workers.length; i++) {
-			workers[i].start();
-			debug(workers[i].getName()+" has been started.");
+	/**
+	 * @param dequeuedNanos - the time the load job started
+	 * @return true if a load with several stages was started and will finish asynchronously
+	 */
+	private boolean loadNext(long dequeuedNanos) {
+		T chunk;
+		while ((chunk = poll(loadingQueue, loadingQueueLock)) != null) {
+			// Not touched in the last full iteration: off-screen, drop it. (The current iteration
+			// may not have touched it yet, update() increments the iteration before touchAll())
+			if ((currentViewIteration - chunk.lastSeen) > 1) {
+				if (chunk.casState(Chunk.LOAD_QUEUED, Chunk.UNLOADED)) statistics.loadsDropped.increment();
+				continue;
+			}
+			if (!chunk.casState(Chunk.LOAD_QUEUED, Chunk.LOADING)) continue;
+			
+			final CancellationToken token = chunk.newLoadToken();
+			loadingChunks.add(chunk);
+			
+			if (loader.getNumStages() <= 1) {
+				try {
+					chunk.runStage(chunk.stages, 0, token);
+				} catch (CancellationException e) {
+					abortLoad(chunk);
+					return false;
+				} catch (RuntimeException e) {
+					failLoad(chunk, e);
+					return false;
+				}
+				finishLoad(chunk, token);
+				return false;
+			}
+			
+			loadStages(chunk, token, new HashSet<T>(), dequeuedNanos);
+			return true;
 		}
-		debug("Started.");
+		return false;
 	}
 	
-	private void stopWorkers() {
-		debug("Stopping worker threads...");
-		workersRunning = false;
-		synchronized (workAvailable) {
-			workAvailable.notifyAll();
-		}
-		for (int i = 0; i < workers.length; i++) {
-			boolean joined = false;
-			while (!joined) {
-				try {
-					workers[i].join();
-					debug(workers[i].getName()+" has been stopped.");
-					joined = true;
-				} catch(InterruptedException e) {
-					e.printStackTrace();
+	/**
+	 * Requests the final stage of a LOADING chunk and finishes loading it once all stages are done.
+	 * Every chunk whose stages the load requests is added to held, and released once the load is over.
+	 * The load job time is recorded once, from dequeuedNanos until the load is over. Only the time spent 
+	 * finishing counts as busy, the stage jobs record their own.
+	 */
+	private void loadStages(T chunk, CancellationToken token, Set<T> held, long dequeuedNanos) {
+		requestStage(chunk, loader.getNumStages()-1, token, held).whenComplete((result, error) -> {
+			final long start = System.nanoTime();
+			if (error == null) {
+				finishLoad(chunk, token);
+			} else {
+				final Throwable cause = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+				if (token.isCancelled()) {
+					abortLoad(chunk);
+				} else if (cause instanceof CancellationException) {
+					// A shared stage was cancelled by the load that requested it first, request it again
+					loadStages(chunk, token, held, dequeuedNanos);
+					return;
+				} else {
+					failLoad(chunk, cause);
 				}
 			}
+			releaseStages(held);
+			final long end = System.nanoTime();
+			statistics.loadJobNanos.record(end - dequeuedNanos);
+			statistics.loadBusyNanos.add(end - start);
+		});
+	}
+	
+	private void releaseStages(Set<T> held) {
+		for (T chunk : held) {
+			chunk.releaseStages();
 		}
-		debug("Stopped.");
 	}
 	
-	private static class WorkerTask<T extends Chunk<T>> implements Runnable {
-		
-		ChunkManager<T> manager;
-		Job<T> myJob;
-		
-		public WorkerTask(ChunkManager<T> manager) {
-			this.manager = manager;
-			myJob = new Job<T>(manager);
+	private void finishLoad(T chunk, CancellationToken token) {
+		final boolean loaded;
+		try {
+			loaded = chunk.internalLoad(token);
+		} catch (RuntimeException e) {
+			failLoad(chunk, e);
+			return;
 		}
-		
-		@Override
-		public void run() {
-			while (manager.workersRunning) {
-			    doWork();
-			}
+		if (!loaded) {
+			if (loadingChunks.remove(chunk)) statistics.loadsCancelled.increment();
+			debug(chunk+" load cancelled.");
+			return;
 		}
+		loadingChunks.remove(chunk);
+		addLoaded(chunk);
+		statistics.loadsCompleted.increment();
+		statistics.queueToLoadNanos.record(System.nanoTime() - chunk.loadQueuedNanos);
+		debug(chunk+" loaded.");
+	}
+	
+	private void abortLoad(T chunk) {
+		if (loadingChunks.remove(chunk)) statistics.loadsCancelled.increment();
+		chunk.abortLoad();
+		debug(chunk+" load cancelled.");
+	}
+	
+	/**
+	 * Reports a load or stage that threw and returns the chunk to UNLOADED, so it can be queued again
+	 */
+	private void failLoad(T chunk, Throwable error) {
+		System.err.println("Failed to load "+chunk);
+		error.printStackTrace();
+		abortLoad(chunk);
+	}
+	
+	/**
+	 * Returns a future that completes when the given stage of a chunk has been generated. The first
+	 * request for a (chunk, stage) pair requests stage-1 of the chunk's neighbourhood and schedules 
+	 * the stage to run on the worker pool when all of those complete. Later requests share the same future.
+	 * If the token of the first request is cancelled, the future completes with a CancellationException.
+	 * The requesting load holds the stages of every chunk it visits, see {@link Chunk#holdStages()}.
+	 */
+	private CompletableFuture<Void> requestStage(T chunk, int stage, CancellationToken token, Set<T> held) {
+		if (held.add(chunk)) chunk.holdStages();
+		final AtomicReferenceArray<CompletableFuture<Void>> stageFutures = chunk.stages;
+		final CompletableFuture<Void> existing = stageFutures.get(stage);
+		if (existing != null) return existing;
 		
-		private static void debug(String msg) {
-			ChunkManager.debug(msg);
-		}
+		final CompletableFuture<Void> future = new CompletableFuture<>();
+		if (!stageFutures.compareAndSet(stage, null, future)) return stageFutures.get(stage);
 		
-		private void doWork() {
-			while (!getJob(myJob).isAssigned()) {
-				try {
-					debug(Thread.currentThread().getName()+" is waiting for work.");
-					synchronized (manager.workAvailable) {
-						manager.workAvailable.wait();
-					}
-				} catch(InterruptedException e) {
-					e.printStackTrace();
+		final CompletableFuture<Void> prerequisites;
+		if (stage == 0) {
+			prerequisites = CompletableFuture.completedFuture(null);
+		} else {
+			final int radius = loader.getStageRadius(stage);
+			final int side = 2*radius+1;
+			final CompletableFuture<?>[] required = new CompletableFuture<?>[side*side];
+			int i = 0;
+			for (int y = chunk.chunkY-radius; y <= chunk.chunkY+radius; y++) {
+				for (int x = chunk.chunkX-radius; x <= chunk.chunkX+radius; x++) {
+					required[i++] = requestStage(loader.getChunk(x, y), stage-1, token, held);
 				}
-				if (!manager.workersRunning) return;
 			}
-			myJob.complete();
+			prerequisites = CompletableFuture.allOf(required);
 		}
-
-		private Job<T> getJob(Job<T> job) {			
-			// Look for unloading jobs first
-			debug(Thread.currentThread().getName()+" locking unloading queue");
-			acquire("unloadingQueue", manager.unloadingQueueLock);
-			job.chunk = manager.unloadingQueue.poll();
-			if (job.chunk != null) {
-				job.type = Job.Type.UNLOAD;
-				release("unloadingQueue", manager.unloadingQueueLock);
-				debug(Thread.currentThread().getName()+" unlocked unloading queue");
-				return job;
-			}
-			release("unloadingQueue", manager.unloadingQueueLock);
-			debug(Thread.currentThread().getName()+" unlocked unloading queue");
-			
-			// Look for loading jobs
-			debug(Thread.currentThread().getName()+" locking loading queue");
-			acquire("loadingQueue", manager.loadingQueueLock);
-			job.chunk = manager.loadingQueue.poll();
-			if (job.chunk != null) {
-				job.type = Job.Type.LOAD;
-				release("loadingQueue", manager.loadingQueueLock);
-				debug(Thread.currentThread().getName()+" unlocked loading queue");
-				return job;
+		
+		prerequisites.thenRunAsync(() -> runStage(chunk, stageFutures, stage, token), workers).whenComplete((result, error) -> {
+			if (error != null) {
+				stageFutures.compareAndSet(stage, future, null); // Allow a later request to retry
+				future.completeExceptionally(error);
+			} else {
+				future.complete(null);
 			}
-			release("loadingQueue", manager.loadingQueueLock);
-			debug(Thread.currentThread().getName()+" unlocked loading queue");
-
-			job.type = Job.Type.UNASSIGNED;
-			
-			return job;
+		});
+		return future;
+	}
+	
+	private void runStage(T chunk, AtomicReferenceArray<CompletableFuture<Void>> stageFutures, int stage, CancellationToken token) {
+		final long start = System.nanoTime();
+		try {
+			chunk.runStage(stageFutures, stage, token);
+		} finally {
+			statistics.stageJob(System.nanoTime() - start);
 		}
 	}
 	
-	/**
-	 * Job class that represents a chunk related job returned 
-	 * by the WorkerTask getJob method and used by Tasks.
-	 */
-	private static class Job<T extends Chunk<T>> {
-		ChunkManager<T> manager;
-		
-		enum Type { UNASSIGNED, LOAD, UNLOAD };
-		Type type = Type.UNASSIGNED;
-		T chunk = null;
-		
-		public Job(ChunkManager<T> manager) {
-			this.manager = manager;
+	private T poll(Queue<T> queue, Lock queueLock) {
+		lock(queueLock);
+		try {
+			return queue.poll();
+		} finally {
+			queueLock.unlock();
 		}
-		
-		public boolean isAssigned() {
-			return type != Type.UNASSIGNED;
+	}
+	
+	private void startWorkers() {
+		debug("Starting worker threads...");
+		final AtomicInteger threadCount = new AtomicInteger();
+		workers = new ForkJoinPool(numWorkers, pool -> {
+			final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("ChunkManager worker thread #"+threadCount.incrementAndGet()+"/"+numWorkers);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}, null, true);
+		final AtomicInteger unloadThreadCount = new AtomicInteger();
+		unloadWorkers = Executors.newFixedThreadPool(numUnloadWorkers, runnable -> {
+			final Thread thread = new Thread(runnable, "ChunkManager unload thread #"+unloadThreadCount.incrementAndGet()+"/"+numUnloadWorkers);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			thread.setDaemon(true);
+			return thread;
+		});
+		if (store != null) {
+			writeBehind = new ChunkWriteBehind(store, writeBehindCapacity, 1);
 		}
+		statistics.startInterval();
+		workersRunning = true;
 		
-		private static void debug(String msg) {
-			ChunkManager.debug(msg);
+		// Submit jobs for everything that was queued before the workers started
+		int queuedLoads, queuedUnloads;
+		lock(loadingQueueLock);
+		try {
+			queuedLoads = loadingQueue.size();
+		} finally {
+			loadingQueueLock.unlock();
+		}
+		lock(unloadingQueueLock);
+		try {
+			queuedUnloads = unloadingQueue.size();
+		} finally {
+			unloadingQueueLock.unlock();
 		}
+		for (int i = 0; i < queuedLoads; i++) {
+			submitLoadJob();
+		}
+		for (int i = 0; i < queuedUnloads; i++) {
+			submitUnloadJob();
+		}
+		debug("Started.");
+	}
+	
+	private void stopWorkers() {
+		debug("Stopping worker threads...");
+		workersRunning = false;
+		if (workers == null) return;
 		
-		public void complete() {
-			if (this.chunk == null) {
-				debug("Error: Job does not refer to a chunk");
-				return;
+		// Loaders stop first, unloaders finish their current chunk, then pending saves are written
+		awaitShutdown(workers);
+		awaitShutdown(unloadWorkers);
+		workers = null;
+		unloadWorkers = null;
+		if (writeBehind != null) {
+			// Throws if chunk data could not be saved
+			try {
+				writeBehind.close();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			} finally {
+				writeBehind = null;
 			}
-			
-			acquire(chunk.toString(), chunk.lock);
-			debug(Thread.currentThread().getName()+" locking "+chunk);
-			
-			// Do job
-			switch (type) {
-				case LOAD:
-					chunk.internalLoad();
-					manager.addLoaded(chunk);
-					debug(chunk+" loaded.");
-					break;
-				case UNLOAD:
-					chunk.internalUnload();
-					debug(chunk+" unloaded.");
-					break;
-				default: 
-					debug("Error: Job type is UNASSIGNED");
-					debug(Thread.currentThread().getName()+" unlocking "+chunk);
-					release(chunk.toString(), chunk.lock);
-					return;
+		}
+		debug("Stopped.");
+	}
+	
+	private static void awaitShutdown(ExecutorService pool) {
+		pool.shutdown();
+		boolean terminated = false;
+		while (!terminated) {
+			try {
+				terminated = pool.awaitTermination(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
 			}
-
-			debug(Thread.currentThread().getName()+" unlocking "+chunk);
-			release(chunk.toString(), chunk.lock);
-			
-			// Clear job info
-			this.type = Type.UNASSIGNED;
-			this.chunk = null;
 		}
 	}
 	
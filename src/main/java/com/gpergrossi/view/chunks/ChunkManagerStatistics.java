@@ -0,0 +1,196 @@
+package com.gpergrossi.view.chunks;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.gpergrossi.util.data.LogHistogram;
+
+/**
+ * <p>Counters and latency histograms collected by a {@link ChunkManager}. Recording is lock-free
+ * and allocation free. Use {@link ChunkManager#getMetricsSnapshot()} to read a consistent
+ * {@link Snapshot} that also includes the current queue depths.</p>
+ */
+public class ChunkManagerStatistics {
+
+	final LongAdder loadsQueued = new LongAdder();
+	final LongAdder loadsCompleted = new LongAdder();
+	final LongAdder loadsCancelled = new LongAdder();		// Cancelled while a worker was loading
+	final LongAdder loadsDropped = new LongAdder();			// Removed from the queue before a worker started them
+	final LongAdder unloadsQueued = new LongAdder();
+	final LongAdder unloadsCompleted = new LongAdder();
+	final LongAdder unloadsCancelled = new LongAdder();
+	final LongAdder lockContentions = new LongAdder();
+
+	final LongAdder loadBusyNanos = new LongAdder();
+	final LongAdder unloadBusyNanos = new LongAdder();
+
+	final LogHistogram queueToLoadNanos = new LogHistogram();
+	final LogHistogram loadJobNanos = new LogHistogram();
+	final LogHistogram stageJobNanos = new LogHistogram();
+	final LogHistogram unloadJobNanos = new LogHistogram();
+	final LogHistogram lockWaitNanos = new LogHistogram();
+
+	private volatile long startNanos = System.nanoTime();
+
+	void loadJob(long nanos) {
+		loadJobNanos.record(nanos);
+		loadBusyNanos.add(nanos);
+	}
+
+	void stageJob(long nanos) {
+		stageJobNanos.record(nanos);
+		loadBusyNanos.add(nanos);
+	}
+
+	void unloadJob(long nanos) {
+		unloadJobNanos.record(nanos);
+		unloadBusyNanos.add(nanos);
+	}
+
+	void lockWait(long nanos) {
+		lockContentions.increment();
+		lockWaitNanos.record(nanos);
+	}
+
+	/**
+	 * Clears all counters and histograms and restarts the utilisation interval
+	 */
+	public void reset() {
+		loadsQueued.reset();
+		loadsCompleted.reset();
+		loadsCancelled.reset();
+		loadsDropped.reset();
+		unloadsQueued.reset();
+		unloadsCompleted.reset();
+		unloadsCancelled.reset();
+		lockContentions.reset();
+		loadBusyNanos.reset();
+		unloadBusyNanos.reset();
+		queueToLoadNanos.reset();
+		loadJobNanos.reset();
+		stageJobNanos.reset();
+		unloadJobNanos.reset();
+		lockWaitNanos.reset();
+		startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Restarts the utilisation interval when the workers start
+	 */
+	void startInterval() {
+		loadBusyNanos.reset();
+		unloadBusyNanos.reset();
+		startNanos = System.nanoTime();
+	}
+
+	long getStartNanos() {
+		return startNanos;
+	}
+
+	/**
+	 * A summary of one latency histogram. Percentiles are accurate to within a factor of two, see {@link LogHistogram}.
+	 */
+	public static final class Distribution {
+		public final long count;
+		public final double meanNanos;
+		public final long p50Nanos, p90Nanos, p99Nanos;
+
+		Distribution(LogHistogram histogram) {
+			this.count = histogram.getCount();
+			this.meanNanos = histogram.getMean();
+			this.p50Nanos = histogram.getPercentile(50);
+			this.p90Nanos = histogram.getPercentile(90);
+			this.p99Nanos = histogram.getPercentile(99);
+		}
+
+		@Override
+		public String toString() {
+			if (count == 0) return "0";
+			return String.format("%d (mean %.1fus, p50 %.1fus, p99 %.1fus)", count, meanNanos / 1000.0, p50Nanos / 1000.0, p99Nanos / 1000.0);
+		}
+	}
+
+	/**
+	 * An immutable view of a ChunkManager's statistics and queue depths at one point in time
+	 */
+	public static final class Snapshot {
+		/** 
+		 * Entries in the loading / unloading queue. Cancelled or re-queued chunks leave stale entries
+		 * behind until a worker reaches them, so these are upper bounds on the chunks actually waiting.
+		 */
+		public final int loadingQueueSize, unloadingQueueSize;
+		public final int numLoading;
+		public final int numLoaded;
+		public final int writeBehindPending;
+
+		public final long loadsQueued, loadsCompleted, loadsCancelled, loadsDropped;
+		public final long unloadsQueued, unloadsCompleted, unloadsCancelled;
+		public final long lockContentions;
+
+		/** Time from queueing a load to the chunk becoming LOADED */
+		public final Distribution queueToLoad;
+		/** 
+		 * Execution time of load jobs, stage jobs and unload jobs. A load with several stages counts as one
+		 * load job, from taking it off the queue until it has finished, including the wait for its stages.
+		 */
+		public final Distribution loadJob, stageJob, unloadJob;
+		/** Time spent waiting for contended locks */
+		public final Distribution lockWait;
+
+		/** Fraction of the available loading / unloading thread time spent running jobs, between 0 and 1 */
+		public final double loadUtilisation, unloadUtilisation;
+		/** Total loading / unloading thread time not spent running jobs */
+		public final long loadIdleNanos, unloadIdleNanos;
+		public final long intervalNanos;
+
+		Snapshot(ChunkManagerStatistics stats, int loadingQueueSize, int unloadingQueueSize, int numLoading, int numLoaded,
+				int writeBehindPending, int numLoadThreads, int numUnloadThreads) {
+			this.loadingQueueSize = loadingQueueSize;
+			this.unloadingQueueSize = unloadingQueueSize;
+			this.numLoading = numLoading;
+			this.numLoaded = numLoaded;
+			this.writeBehindPending = writeBehindPending;
+
+			this.loadsQueued = stats.loadsQueued.sum();
+			this.loadsCompleted = stats.loadsCompleted.sum();
+			this.loadsCancelled = stats.loadsCancelled.sum();
+			this.loadsDropped = stats.loadsDropped.sum();
+			this.unloadsQueued = stats.unloadsQueued.sum();
+			this.unloadsCompleted = stats.unloadsCompleted.sum();
+			this.unloadsCancelled = stats.unloadsCancelled.sum();
+			this.lockContentions = stats.lockContentions.sum();
+
+			this.queueToLoad = new Distribution(stats.queueToLoadNanos);
+			this.loadJob = new Distribution(stats.loadJobNanos);
+			this.stageJob = new Distribution(stats.stageJobNanos);
+			this.unloadJob = new Distribution(stats.unloadJobNanos);
+			this.lockWait = new Distribution(stats.lockWaitNanos);
+
+			this.intervalNanos = Math.max(1, System.nanoTime() - stats.getStartNanos());
+			final long loadBusy = stats.loadBusyNanos.sum();
+			final long unloadBusy = stats.unloadBusyNanos.sum();
+			final long loadAvailable = intervalNanos * numLoadThreads;
+			final long unloadAvailable = intervalNanos * numUnloadThreads;
+			this.loadUtilisation = Math.min(1.0, (double) loadBusy / loadAvailable);
+			this.unloadUtilisation = Math.min(1.0, (double) unloadBusy / unloadAvailable);
+			this.loadIdleNanos = Math.max(0, loadAvailable - loadBusy);
+			this.unloadIdleNanos = Math.max(0, unloadAvailable - unloadBusy);
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder sb = new StringBuilder("ChunkManager[");
+			sb.append("queued=").append(loadingQueueSize).append('/').append(unloadingQueueSize);
+			sb.append(", loading=").append(numLoading);
+			sb.append(", loaded=").append(numLoaded);
+			if (writeBehindPending > 0) sb.append(", unsaved=").append(writeBehindPending);
+			sb.append(", loads=").append(loadsCompleted).append('/').append(loadsQueued);
+			sb.append(" (cancelled ").append(loadsCancelled).append(", dropped ").append(loadsDropped).append(')');
+			sb.append(", unloads=").append(unloadsCompleted).append('/').append(unloadsQueued);
+			sb.append(String.format(", utilisation=%.0f%%/%.0f%%", loadUtilisation * 100, unloadUtilisation * 100));
+			sb.append(", queueToLoad=").append(queueToLoad);
+			sb.append(", lockWait=").append(lockWait);
+			return sb.append(']').toString();
+		}
+	}
+
+}
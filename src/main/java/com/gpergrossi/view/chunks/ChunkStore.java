@@ -0,0 +1,25 @@
+package com.gpergrossi.view.chunks;
+
+/**
+ * Persistent storage for the data of unloaded chunks, see {@link Chunk#save()} and 
+ * {@link ChunkManager#setStore(ChunkStore, int)}. Implementations must be thread safe.
+ */
+public interface ChunkStore {
+
+	/**
+	 * @return the data last written for the chunk at the given coordinates, or null if there is none
+	 */
+	public byte[] read(int chunkX, int chunkY);
+	
+	/**
+	 * Stores the data for the chunk at the given coordinates, replacing any previous data.
+	 * A null data array removes the chunk from the store.
+	 */
+	public void write(int chunkX, int chunkY, byte[] data);
+	
+	/**
+	 * Forces all written data to permanent storage
+	 */
+	public default void flush() {}
+	
+}
@@ -0,0 +1,158 @@
+package com.gpergrossi.view.chunks;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.gpergrossi.util.data.ConcurrentLongMap;
+
+/**
+ * <p>A bounded write-behind buffer in front of a {@link ChunkStore}. Writes are queued and 
+ * performed by low priority background threads, so unloading a chunk never waits for the store 
+ * unless the buffer is full. When it is full, {@link #write(int, int, byte[])} blocks until a slot 
+ * is free, which applies back-pressure to the unloading threads only.</p>
+ * 
+ * <p>Reads see pending writes, so a chunk that is loaded again before its data reaches the store 
+ * still reads its latest data. Repeated writes of the same chunk are coalesced.</p>
+ * 
+ * <p>A write that the store rejects stays pending, so reads keep seeing its data. It is tried 
+ * again by the next write of the same chunk or the next {@link #flush()}, and flush() and 
+ * {@link #close()} throw if any write is still failing.</p>
+ */
+public class ChunkWriteBehind {
+
+	private static final byte[] DELETED = new byte[0]; // Pending removal, compared by identity
+	
+	private final ChunkStore store;
+	private final ConcurrentMap<Long, byte[]> pending;
+	private final BlockingQueue<Long> queue;
+	private final Set<Long> failed;		// Pending keys whose last write threw, not in the queue
+	private final Thread[] writers;
+	
+	private volatile boolean running;
+	private volatile RuntimeException lastFailure;
+	
+	/**
+	 * @param store - the store to write to
+	 * @param capacity - maximum number of chunks waiting to be written
+	 * @param numThreads - number of writer threads
+	 */
+	public ChunkWriteBehind(ChunkStore store, int capacity, int numThreads) {
+		this.store = store;
+		this.pending = new ConcurrentHashMap<>();
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.failed = ConcurrentHashMap.newKeySet();
+		this.writers = new Thread[numThreads];
+		this.running = true;
+		for (int i = 0; i < numThreads; i++) {
+			writers[i] = new Thread(this::runWriter, "ChunkManager write-behind thread #"+(i+1)+"/"+numThreads);
+			writers[i].setPriority(Thread.MIN_PRIORITY);
+			writers[i].setDaemon(true);
+			writers[i].start();
+		}
+	}
+	
+	public ChunkStore getStore() {
+		return store;
+	}
+	
+	/**
+	 * Queues data to be written to the store, blocking while the buffer is full
+	 */
+	public void write(int chunkX, int chunkY, byte[] data) throws InterruptedException {
+		if (!running) throw new IllegalStateException("ChunkWriteBehind is closed");
+		
+		final Long key = ConcurrentLongMap.pack(chunkX, chunkY);
+		final byte[] previous = pending.put(key, data == null ? DELETED : data);
+		if (previous != null && !failed.remove(key)) return; // Already queued, the writer will pick up the new data
+		queue.put(key);
+	}
+	
+	/**
+	 * @return the latest data written for the chunk, including writes not yet in the store
+	 */
+	public byte[] read(int chunkX, int chunkY) {
+		final byte[] data = pending.get(ConcurrentLongMap.pack(chunkX, chunkY));
+		if (data == DELETED) return null;
+		if (data != null) return data;
+		return store.read(chunkX, chunkY);
+	}
+	
+	/**
+	 * @return the number of chunks waiting to be written
+	 */
+	public int getNumPending() {
+		return pending.size();
+	}
+	
+	private void runWriter() {
+		while (running || !queue.isEmpty()) {
+			final Long key;
+			try {
+				key = queue.take();
+			} catch (InterruptedException e) {
+				continue;
+			}
+			
+			// Write until the data written is still the latest data, a newer write may arrive meanwhile
+			while (true) {
+				final byte[] data = pending.get(key);
+				if (data == null) break;
+				try {
+					store.write(ConcurrentLongMap.unpackX(key), ConcurrentLongMap.unpackY(key), data == DELETED ? null : data);
+				} catch (RuntimeException e) {
+					// Keep the data pending until a later attempt succeeds
+					System.err.println("Failed to write chunk data");
+					e.printStackTrace();
+					lastFailure = e;
+					failed.add(key);
+					if (pending.get(key) != data && failed.remove(key)) continue; // Rewritten meanwhile, try the new data
+					break;
+				}
+				if (pending.remove(key, data)) break;
+			}
+			
+			synchronized (this) {
+				if (pending.size() <= failed.size()) this.notifyAll();
+			}
+		}
+	}
+	
+	/**
+	 * Retries the writes that failed earlier, waits until every queued write has either reached 
+	 * the store or failed, then flushes the store.
+	 * @throws RuntimeException if any write is still failing, caused by the most recent failure.
+	 * The failed writes stay pending.
+	 */
+	public void flush() throws InterruptedException {
+		lastFailure = null;
+		for (Long key : failed) {
+			if (failed.remove(key)) queue.put(key);
+		}
+		synchronized (this) {
+			while (pending.size() > failed.size()) this.wait(100);
+		}
+		final RuntimeException failure = lastFailure;
+		if (!failed.isEmpty()) {
+			throw new RuntimeException("Failed to write "+failed.size()+" chunks to the store", failure);
+		}
+		store.flush();
+	}
+	
+	/**
+	 * Writes everything still pending and stops the writer threads. Does not close the store.
+	 * The writer threads are stopped even if flushing throws, and writes that failed are discarded.
+	 */
+	public void close() throws InterruptedException {
+		try {
+			flush();
+		} finally {
+			running = false;
+			for (Thread writer : writers) writer.interrupt();
+			for (Thread writer : writers) writer.join();
+		}
+	}
+	
+}
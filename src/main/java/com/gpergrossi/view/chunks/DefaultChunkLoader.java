@@ -0,0 +1,45 @@
+package com.gpergrossi.view.chunks;
+
+import com.gpergrossi.util.data.ConcurrentLongMap;
+
+/**
+ * A ChunkLoader that keeps every chunk it creates in a {@link ConcurrentLongMap} keyed by the packed 
+ * chunk coordinates. Looking up an existing chunk is lock-free and does not allocate, so it is cheap 
+ * enough to call for every visible chunk on every frame. Subclasses only need to construct chunks.
+ */
+public abstract class DefaultChunkLoader<T extends Chunk<T>> extends ChunkLoader<T> {
+
+	protected final ConcurrentLongMap<T> chunks;
+	
+	public DefaultChunkLoader() {
+		this.chunks = new ConcurrentLongMap<>();
+	}
+	
+	/**
+	 * Creates the chunk at the given chunk coordinates. Called at most once per coordinate.
+	 */
+	protected abstract T createChunk(int chunkX, int chunkY);
+	
+	@Override
+	public T getChunk(int chunkX, int chunkY) {
+		final long key = ConcurrentLongMap.pack(chunkX, chunkY);
+		final T chunk = chunks.get(key);
+		if (chunk != null) return chunk;
+		return chunks.computeIfAbsent(key, k -> createChunk(chunkX, chunkY));
+	}
+	
+	/**
+	 * Returns the chunk at the given chunk coordinates, or null if it has not been created. See: getChunk()
+	 */
+	public T getExistingChunk(int chunkX, int chunkY) {
+		return chunks.get(ConcurrentLongMap.pack(chunkX, chunkY));
+	}
+	
+	/**
+	 * @return the number of chunks created by this loader
+	 */
+	public int getNumChunks() {
+		return chunks.size();
+	}
+	
+}
@@ -0,0 +1,267 @@
+package com.gpergrossi.view.chunks;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>An exact priority queue of chunks ordered by their Chebyshev (chessboard) distance from a center
+ * chunk. Chunks at the same distance form a ring around the center, and each ring is stored in its own
+ * bucket, so offer() and poll() are constant time (amortized over the cursor scan) and never compare
+ * chunks with each other.</p>
+ *
+ * <p>The queue returns either the closest or the farthest chunks first. Moving the center with
+ * {@link #setCenter(int, int)} does not touch the elements: they stay in the buckets of the center they
+ * were bucketed around, whose distance from the current center (the drift) bounds how far any element's
+ * bucket can be from its true distance. poll() and peek() compare the true distances of the elements in
+ * the few buckets within the drift of the cursor, so the order stays exact. Once the extra elements
+ * examined this way outnumber the queue, every element is re-bucketed around the current center.</p>
+ *
+ * <p>This class is not thread safe.</p>
+ *
+ * @param <T> the type of chunk stored by this queue
+ */
+public class DistanceBucketQueue<T extends Chunk<T>> extends AbstractQueue<T> {
+
+	private final boolean farthestFirst;
+
+	private ArrayList<ArrayList<T>> buckets;
+	private int size;
+	private int cursor;		// No non-empty bucket lies before the cursor (closest first) or after it (farthest first)
+	private int modCount;
+
+	private int centerX, centerY;
+	private int bucketCenterX, bucketCenterY;	// The center that elements are bucketed around
+	private int drift;							// Chebyshev distance between the two centers
+	private long scanWork;						// Elements examined beyond the one returned since the last re-bucketing
+
+	private int foundBucket, foundIndex;		// Result of find()
+
+	public DistanceBucketQueue(boolean farthestFirst) {
+		this.farthestFirst = farthestFirst;
+		this.buckets = new ArrayList<>();
+		this.cursor = farthestFirst ? -1 : 0;
+	}
+
+	public int getCenterX() {
+		return centerX;
+	}
+
+	public int getCenterY() {
+		return centerY;
+	}
+
+	/**
+	 * Moves the center of the queue. Elements are re-bucketed lazily, see the class description.
+	 */
+	public void setCenter(int centerX, int centerY) {
+		if (centerX == this.centerX && centerY == this.centerY) return;
+		this.centerX = centerX;
+		this.centerY = centerY;
+		this.drift = chebyshev((long) centerX - bucketCenterX, (long) centerY - bucketCenterY);
+	}
+
+	/**
+	 * @return the Chebyshev distance of the given chunk from the center of this queue
+	 */
+	public int distance(T chunk) {
+		return chebyshev((long) chunk.chunkX - centerX, (long) chunk.chunkY - centerY);
+	}
+
+	private int bucketOf(T chunk) {
+		return chebyshev((long) chunk.chunkX - bucketCenterX, (long) chunk.chunkY - bucketCenterY);
+	}
+
+	private static int chebyshev(long dx, long dy) {
+		return (int) Math.min(Math.max(Math.abs(dx), Math.abs(dy)), Integer.MAX_VALUE);
+	}
+
+	@Override
+	public boolean offer(T chunk) {
+		if (chunk == null) throw new NullPointerException();
+
+		final int bucket = bucketOf(chunk);
+		while (buckets.size() <= bucket) buckets.add(new ArrayList<T>());
+		buckets.get(bucket).add(chunk);
+		size++;
+		modCount++;
+
+		if (farthestFirst) cursor = Math.max(cursor, bucket);
+		else cursor = Math.min(cursor, bucket);
+		return true;
+	}
+
+	@Override
+	public T poll() {
+		if (!find()) return null;
+		final ArrayList<T> bucket = buckets.get(foundBucket);
+		final T last = bucket.remove(bucket.size()-1);
+		final T result = (foundIndex < bucket.size()) ? bucket.set(foundIndex, last) : last;
+		size--;
+		modCount++;
+
+		trimBuckets();
+		if (scanWork > size) rebucket();
+		return result;
+	}
+
+	@Override
+	public T peek() {
+		if (!find()) return null;
+		return buckets.get(foundBucket).get(foundIndex);
+	}
+
+	/**
+	 * Locates the closest (or farthest) element by its true distance from the center
+	 * @return false if the queue is empty
+	 */
+	private boolean find() {
+		if (size == 0) return false;
+		advance();
+		if (drift == 0) {
+			foundBucket = cursor;
+			foundIndex = buckets.get(cursor).size()-1;
+			return true;
+		}
+
+		// An element in bucket b is between b-drift and b+drift from the center
+		int bestDistance = -1;
+		int examined = 0;
+		if (farthestFirst) {
+			for (int b = cursor; b >= 0 && b + drift > bestDistance; b--) {
+				final ArrayList<T> bucket = buckets.get(b);
+				for (int i = bucket.size()-1; i >= 0; i--) {
+					final int distance = distance(bucket.get(i));
+					examined++;
+					if (distance > bestDistance) {
+						bestDistance = distance;
+						foundBucket = b;
+						foundIndex = i;
+					}
+				}
+			}
+		} else {
+			bestDistance = Integer.MAX_VALUE;
+			for (int b = cursor; b < buckets.size() && b - drift < bestDistance; b++) {
+				final ArrayList<T> bucket = buckets.get(b);
+				for (int i = bucket.size()-1; i >= 0; i--) {
+					final int distance = distance(bucket.get(i));
+					examined++;
+					if (distance < bestDistance) {
+						bestDistance = distance;
+						foundBucket = b;
+						foundIndex = i;
+					}
+				}
+			}
+		}
+		scanWork += examined - 1;
+		return true;
+	}
+
+	/**
+	 * Moves the cursor to the next non-empty bucket. The queue must not be empty.
+	 */
+	private void advance() {
+		if (farthestFirst) {
+			while (buckets.get(cursor).isEmpty()) cursor--;
+		} else {
+			while (buckets.get(cursor).isEmpty()) cursor++;
+		}
+	}
+
+	/**
+	 * Drops empty buckets from the end of the bucket list
+	 */
+	private void trimBuckets() {
+		int last = buckets.size()-1;
+		while (last >= 0 && buckets.get(last).isEmpty()) buckets.remove(last--);
+		if (size == 0) cursor = farthestFirst ? -1 : 0;
+		else if (farthestFirst) cursor = Math.min(cursor, last);
+	}
+
+	/**
+	 * Re-buckets every element around the current center
+	 */
+	private void rebucket() {
+		final ArrayList<ArrayList<T>> oldBuckets = buckets;
+		this.buckets = new ArrayList<>();
+		this.size = 0;
+		this.cursor = farthestFirst ? -1 : 0;
+		this.bucketCenterX = centerX;
+		this.bucketCenterY = centerY;
+		this.drift = 0;
+		this.scanWork = 0;
+		for (ArrayList<T> bucket : oldBuckets) {
+			for (T chunk : bucket) offer(chunk);
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		buckets.clear();
+		size = 0;
+		cursor = farthestFirst ? -1 : 0;
+		bucketCenterX = centerX;
+		bucketCenterY = centerY;
+		drift = 0;
+		scanWork = 0;
+		modCount++;
+	}
+
+	/**
+	 * Iterates over the elements in no particular order. Removal through the iterator is supported
+	 * and takes constant time.
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			int bucketIndex = 0;
+			int index = 0;
+			boolean canRemove = false;
+			int expectedModCount = modCount;
+
+			@Override
+			public boolean hasNext() {
+				while (bucketIndex < buckets.size()) {
+					if (index < buckets.get(bucketIndex).size()) return true;
+					bucketIndex++;
+					index = 0;
+				}
+				return false;
+			}
+
+			@Override
+			public T next() {
+				if (modCount != expectedModCount) throw new ConcurrentModificationException();
+				if (!hasNext()) throw new NoSuchElementException();
+				canRemove = true;
+				return buckets.get(bucketIndex).get(index++);
+			}
+
+			@Override
+			public void remove() {
+				if (!canRemove) throw new IllegalStateException();
+				if (modCount != expectedModCount) throw new ConcurrentModificationException();
+				canRemove = false;
+
+				// Swap the last element of the bucket into the removed slot and visit it next
+				final ArrayList<T> bucket = buckets.get(bucketIndex);
+				index--;
+				final T last = bucket.remove(bucket.size()-1);
+				if (index < bucket.size()) bucket.set(index, last);
+
+				size--;
+				expectedModCount = ++modCount;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,116 @@
+package com.gpergrossi.view.chunks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.gpergrossi.util.data.ConcurrentLongMap;
+import com.gpergrossi.util.io.IStreamHandler;
+import com.gpergrossi.util.io.IStreamHandlerFixedSize;
+import com.gpergrossi.util.io.ndmf.NamedDataMapFile;
+
+/**
+ * A {@link ChunkStore} that keeps chunk data in a {@link NamedDataMapFile}, named by the 
+ * {@link ConcurrentLongMap#pack(int, int) packed} chunk coordinates.
+ */
+public class NDMFChunkStore implements ChunkStore {
+
+	public static final IStreamHandlerFixedSize<Long> CHUNK_KEY_HANDLER = new IStreamHandlerFixedSize<Long>() {
+		@Override
+		public int getMaxSize() {
+			return 8;
+		}
+		
+		@Override
+		public Writer<Long> getWriter() {
+			return (os, key) -> new DataOutputStream(os).writeLong(key);
+		}
+		
+		@Override
+		public Reader<Long> getReader() {
+			return is -> new DataInputStream(is).readLong();
+		}
+	};
+	
+	public static final IStreamHandler<byte[]> CHUNK_DATA_HANDLER = new IStreamHandler<byte[]>() {
+		@Override
+		public Writer<byte[]> getWriter() {
+			return (os, data) -> os.write(data);
+		}
+		
+		@Override
+		public Reader<byte[]> getReader() {
+			return NDMFChunkStore::readFully;
+		}
+	};
+	
+	private static byte[] readFully(InputStream is) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[4096];
+		int read;
+		while ((read = is.read(buffer)) != -1) {
+			bytes.write(buffer, 0, read);
+		}
+		return bytes.toByteArray();
+	}
+	
+	protected final NamedDataMapFile<Long, byte[]> file;
+	
+	/**
+	 * Creates a store backed by the given file, which must use {@link #CHUNK_KEY_HANDLER} 
+	 * and {@link #CHUNK_DATA_HANDLER}. The file is not opened or closed by this store.
+	 */
+	public NDMFChunkStore(NamedDataMapFile<Long, byte[]> file) {
+		this.file = file;
+	}
+	
+	/**
+	 * Opens (or creates) a chunk store file with the given block size
+	 */
+	public static NDMFChunkStore open(File file, int blockSize) throws IOException {
+		final NamedDataMapFile<Long, byte[]> ndmf = new NamedDataMapFile<>(CHUNK_KEY_HANDLER, CHUNK_DATA_HANDLER, blockSize, 256);
+		ndmf.open(file);
+		return new NDMFChunkStore(ndmf);
+	}
+	
+	public NamedDataMapFile<Long, byte[]> getFile() {
+		return file;
+	}
+	
+	/*
+	 * Chunk data is only read when a chunk loads and only written when it unloads, so neither
+	 * is kept in the file's data cache, which would otherwise hold every chunk ever visited.
+	 */
+	
+	@Override
+	public byte[] read(int chunkX, int chunkY) {
+		final long key = ConcurrentLongMap.pack(chunkX, chunkY);
+		final byte[] data = file.get(key);
+		file.uncache(key);
+		return data;
+	}
+	
+	@Override
+	public void write(int chunkX, int chunkY, byte[] data) {
+		final long key = ConcurrentLongMap.pack(chunkX, chunkY);
+		file.set(key, data);
+		file.uncache(key);
+	}
+	
+	@Override
+	public void flush() {
+		try {
+			file.sync();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	public void close() throws IOException {
+		file.close();
+	}
+	
+}
@@ -47,12 +47,15 @@ public class View2DChunkManager<T extends View2DChunk<T>> extends ChunkManager<T
 	}
 	
 	public void draw(Graphics2D g) {
-		acquire("loadedChunks", loadedChunksLock);
-		Iterator<T> iterator = loadedChunks.iterator();
-		while (iterator.hasNext()) {
-			iterator.next().draw(g);
+		loadedChunksLock.lock();
+		try {
+			Iterator<T> iterator = loadedChunks.iterator();
+			while (iterator.hasNext()) {
+				iterator.next().draw(g);
+			}
+		} finally {
+			loadedChunksLock.unlock();
 		}
-		release("loadedChunks", loadedChunksLock);
 	}
 	
 }
@@ -0,0 +1,134 @@
+package com.gpergrossi.procgen;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import com.gpergrossi.util.geom.ranges.Int2DRange;
+import com.gpergrossi.util.geom.vectors.Double2D;
+import com.gpergrossi.util.spacial.BinaryQuadtree;
+
+public class BinaryQuadtreeTest {
+
+	private static final int NUM_BOXES = 2000;
+	private static final int NUM_THREADS = 4;
+	private static final int QUERIES_PER_THREAD = 1000;
+	
+	private static class Box implements BinaryQuadtree.Entry {
+		final Int2DRange range;
+		
+		Box(int x, int y) {
+			this.range = new Int2DRange(x, y, x+3, y+3);
+		}
+		
+		@Override
+		public Int2DRange getRange() {
+			return range;
+		}
+		
+		@Override
+		public double getDistanceTo(Double2D pt) {
+			final double dx = Math.max(0, Math.max(range.minX - pt.x(), pt.x() - range.maxX));
+			final double dy = Math.max(0, Math.max(range.minY - pt.y(), pt.y() - range.maxY));
+			return Math.sqrt(dx*dx + dy*dy);
+		}
+	}
+	
+	private static class Tree extends BinaryQuadtree<Box> {
+		Tree(Int2DRange range) {
+			super(range);
+		}
+		
+		QueryResult<Box> getClosestFrom(Double2D point, QueryResult<Box> start) {
+			return getClosest(point, start);
+		}
+	}
+	
+	private static List<Box> fill(BinaryQuadtree<Box> tree) {
+		final Random random = new Random(1);
+		final List<Box> boxes = new ArrayList<>(NUM_BOXES);
+		for (int i = 0; i < NUM_BOXES; i++) {
+			final Box box = new Box(random.nextInt(1000), random.nextInt(1000));
+			boxes.add(box);
+			tree.insert(box);
+		}
+		return boxes;
+	}
+	
+	@Test
+	public void testConcurrentQueriesOnFrozenTree() throws InterruptedException, ExecutionException {
+		final BinaryQuadtree<Box> tree = new BinaryQuadtree<>(new Int2DRange(0, 0, 1023, 1023));
+		final List<Box> boxes = fill(tree);
+		tree.freeze();
+		final int numNodes = tree.numNodes();
+		
+		final ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+		try {
+			final List<Future<Integer>> futures = new ArrayList<>();
+			for (int t = 0; t < NUM_THREADS; t++) {
+				final long seed = t;
+				futures.add(executor.submit(() -> {
+					final Random random = new Random(seed);
+					int wrong = 0;
+					for (int i = 0; i < QUERIES_PER_THREAD; i++) {
+						final Double2D point = new Double2D(random.nextDouble()*1000, random.nextDouble()*1000);
+						double closest = Double.POSITIVE_INFINITY;
+						int intersecting = 0;
+						for (Box box : boxes) {
+							final double distance = box.getDistanceTo(point);
+							closest = Math.min(closest, distance);
+							if (distance <= 0) intersecting++;
+						}
+						
+						final BinaryQuadtree.QueryResult<Box> result = tree.getClosest(point);
+						if (result.getDistanceToQueryPoint() != closest) wrong++;
+						if (result.getStatistics().getNodesSearched() <= 0) wrong++;
+						if (tree.getIntersects(point).size() != intersecting) wrong++;
+					}
+					return wrong;
+				}));
+			}
+			for (Future<Integer> future : futures) {
+				assertEquals(0, (int) future.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(numNodes, tree.numNodes());
+	}
+	
+	@Test
+	public void testInsertAfterFreezeThrows() {
+		final BinaryQuadtree<Box> tree = new BinaryQuadtree<>(new Int2DRange(0, 0, 1023, 1023));
+		tree.insert(new Box(10, 10));
+		tree.freeze();
+		assertTrue(tree.isFrozen());
+		assertThrows(IllegalStateException.class, () -> tree.insert(new Box(20, 20)));
+		assertEquals(1, tree.size());
+	}
+	
+	@Test
+	public void testGetClosestFromConstructedResult() {
+		final Tree tree = new Tree(new Int2DRange(0, 0, 1023, 1023));
+		fill(tree);
+		final Double2D point = new Double2D(500, 500);
+		final BinaryQuadtree.QueryResult<Box> start = new BinaryQuadtree.QueryResult<>(point, Double.POSITIVE_INFINITY, Optional.empty());
+		assertNull(start.getStatistics());
+		
+		final BinaryQuadtree.QueryResult<Box> result = tree.getClosestFrom(point, start);
+		assertEquals(tree.getClosest(point).getDistanceToQueryPoint(), result.getDistanceToQueryPoint());
+		assertTrue(result.getEntry().isPresent());
+		assertNotNull(result.getStatistics());
+		assertTrue(result.getStatistics().getNodesSearched() > 0);
+	}
+	
+}
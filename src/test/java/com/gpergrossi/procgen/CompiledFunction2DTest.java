@@ -0,0 +1,99 @@
+package com.gpergrossi.procgen;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.gpergrossi.util.math.func2d.CombineOperation;
+import com.gpergrossi.util.math.func2d.CompiledFunction2D;
+import com.gpergrossi.util.math.func2d.ConstantFunction2D;
+import com.gpergrossi.util.math.func2d.FractalNoise2D;
+import com.gpergrossi.util.math.func2d.Function2D;
+import com.gpergrossi.util.math.func2d.RemapOperation;
+import com.gpergrossi.util.math.func2d.SimplexNoise2D;
+
+public class CompiledFunction2DTest {
+
+	private static final int WIDTH = 37, HEIGHT = 23;
+	private static final double ORIGIN_X = -101.5, ORIGIN_Y = 47.25, STEP = 3.75;
+	
+	/**
+	 * A tree with a shared leaf, a missing child, constant subtrees and nested operations
+	 */
+	private static Function2D newTree() {
+		final Function2D hills = new FractalNoise2D.Builder().withSeed(7).withPeriod(200).withOctaves(4).build();
+		final Function2D detail = new SimplexNoise2D(11, 1/17.0);
+		final Function2D constant = new CombineOperation(new ConstantFunction2D(2), new ConstantFunction2D(3), (a, b) -> a*b);
+		
+		final Function2D ridges = new RemapOperation(hills, a -> 1 - Math.abs(a));
+		final Function2D mixed = new CombineOperation(ridges, detail, (a, b) -> a + 0.25*b);
+		final Function2D scaled = new CombineOperation(mixed, constant, (a, b) -> a*b);
+		final Function2D clamped = new CombineOperation(scaled, null, Math::max);
+		return new CombineOperation(clamped, new RemapOperation(hills, a -> a*a), (a, b) -> a - b);
+	}
+	
+	@Test
+	public void testGetValueMatchesTree() {
+		final Function2D tree = newTree();
+		final CompiledFunction2D compiled = CompiledFunction2D.compile(tree);
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				final double sampleX = ORIGIN_X + x*STEP, sampleY = ORIGIN_Y + y*STEP;
+				assertEquals(tree.getValue(sampleX, sampleY), compiled.getValue(sampleX, sampleY));
+			}
+		}
+	}
+	
+	@Test
+	public void testFillMatchesTree() {
+		final Function2D tree = newTree();
+		final CompiledFunction2D compiled = CompiledFunction2D.compile(tree);
+		final double[] expected = new double[WIDTH*HEIGHT];
+		final double[] actual = new double[WIDTH*HEIGHT];
+		tree.fill(expected, WIDTH, HEIGHT, ORIGIN_X, ORIGIN_Y, STEP);
+		compiled.fill(actual, WIDTH, HEIGHT, ORIGIN_X, ORIGIN_Y, STEP);
+		assertArrayEquals(expected, actual);
+	}
+	
+	@Test
+	public void testSharingAndFolding() {
+		final Function2D leaf = new SimplexNoise2D(3, 1/50.0);
+		final Function2D constant = new RemapOperation(new ConstantFunction2D(4), Math::sqrt);
+		final CombineOperation.Operation add = (a, b) -> a + b;
+		final Function2D tree = new CombineOperation(new CombineOperation(leaf, constant, add), new CombineOperation(leaf, constant, add), add);
+		
+		// The folded square root 2, the leaf, one shared (leaf + 2) and the root. The constant 4 is dead after folding
+		final CompiledFunction2D compiled = CompiledFunction2D.compile(tree);
+		assertEquals(4, compiled.getNumInstructions());
+		assertEquals(tree.getValue(12.5, -8), compiled.getValue(12.5, -8));
+		
+		// A tree of constants folds into the single constant it evaluates to
+		final Function2D constantTree = new CombineOperation(constant, new RemapOperation(constant, v -> -v), (a, b) -> a * 10 + b);
+		final CompiledFunction2D folded = CompiledFunction2D.compile(constantTree);
+		assertEquals(1, folded.getNumInstructions());
+		assertEquals(18.0, folded.getValue(0, 0));
+	}
+	
+	@Test
+	public void testGetValueFromSeveralThreads() throws InterruptedException {
+		final Function2D tree = newTree();
+		final CompiledFunction2D compiled = CompiledFunction2D.compile(tree);
+		final AtomicInteger mismatches = new AtomicInteger();
+		final Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int offset = t;
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 20000; i++) {
+					final double x = (i % 200)*1.5 + offset, y = (i / 200)*2.5;
+					if (Double.compare(tree.getValue(x, y), compiled.getValue(x, y)) != 0) mismatches.incrementAndGet();
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) thread.join();
+		assertEquals(0, mismatches.get());
+	}
+	
+}
@@ -0,0 +1,134 @@
+package com.gpergrossi.procgen;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.gpergrossi.util.data.ConcurrentLongMap;
+
+public class ConcurrentLongMapTest {
+
+	@Test
+	public void testPackRoundTrip() {
+		final int[] values = { 0, 1, -1, 12345, -98765, Integer.MAX_VALUE, Integer.MIN_VALUE };
+		for (int x : values) {
+			for (int y : values) {
+				final long key = ConcurrentLongMap.pack(x, y);
+				assertEquals(x, ConcurrentLongMap.unpackX(key));
+				assertEquals(y, ConcurrentLongMap.unpackY(key));
+			}
+		}
+	}
+	
+	@Test
+	public void testRemoveAndReinsert() {
+		final ConcurrentLongMap<String> map = new ConcurrentLongMap<>();
+		assertNull(map.putIfAbsent(5, "a"));
+		assertEquals("a", map.putIfAbsent(5, "b"));
+		assertEquals("a", map.remove(5));
+		assertNull(map.remove(5));
+		assertNull(map.get(5));
+		assertTrue(map.isEmpty());
+		
+		// The key's old slot is a tombstone now, it must not hide the new value
+		assertEquals("c", map.computeIfAbsent(5, key -> "c"));
+		assertEquals("c", map.get(5));
+		assertEquals(1, map.size());
+	}
+	
+	@Test
+	public void testRemoveIfMapped() {
+		final ConcurrentLongMap<String> map = new ConcurrentLongMap<>();
+		final String a = new String("a");
+		map.putIfAbsent(5, a);
+		assertFalse(map.remove(5, new String("a")));	// Compared by identity
+		assertFalse(map.remove(6, a));
+		assertSame(a, map.get(5));
+		assertTrue(map.remove(5, a));
+		assertFalse(map.remove(5, a));
+		assertTrue(map.isEmpty());
+	}
+	
+	/**
+	 * Keys that probed past a removed entry must still be found through its tombstone, 
+	 * and must survive the rebuild that drops the tombstones.
+	 */
+	@Test
+	public void testTombstonesKeepProbeChains() {
+		final ConcurrentLongMap<Long> map = new ConcurrentLongMap<>(4);
+		for (long key = 0; key < 7; key++) map.putIfAbsent(key, key);
+		for (long key = 0; key < 7; key += 2) map.remove(key);
+		for (long key = 1; key < 7; key += 2) assertEquals(Long.valueOf(key), map.get(key));
+		
+		// Enough inserts to force several rebuilds
+		for (long key = 100; key < 200; key++) map.putIfAbsent(key, key);
+		for (long key = 0; key < 7; key++) {
+			if ((key & 1) == 0) assertNull(map.get(key));
+			else assertEquals(Long.valueOf(key), map.get(key));
+		}
+		assertEquals(103, map.size());
+	}
+	
+	/**
+	 * A long run of inserts and removes with a small live set leaves the map consistent with a HashMap
+	 */
+	@Test
+	public void testChurnMatchesHashMap() {
+		final ConcurrentLongMap<Long> map = new ConcurrentLongMap<>();
+		final Map<Long, Long> expected = new HashMap<>();
+		final Random random = new Random(1234);
+		for (int i = 0; i < 200000; i++) {
+			final long key = ConcurrentLongMap.pack(random.nextInt(64) - 32, random.nextInt(64) - 32);
+			if (random.nextBoolean()) {
+				assertEquals(expected.putIfAbsent(key, (long) i), map.putIfAbsent(key, (long) i));
+			} else {
+				assertEquals(expected.remove(key), map.remove(key));
+			}
+			assertEquals(expected.size(), map.size());
+		}
+		for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+			assertEquals(entry.getValue(), map.get(entry.getKey()));
+		}
+		final AtomicInteger visited = new AtomicInteger();
+		map.forEachValue(value -> {
+			visited.incrementAndGet();
+			assertTrue(expected.containsValue(value));
+		});
+		assertEquals(expected.size(), visited.get());
+	}
+	
+	/**
+	 * Lock-free readers must always find keys that are never removed while other keys churn
+	 */
+	@Test
+	public void testReadersDuringChurn() throws InterruptedException {
+		final ConcurrentLongMap<Long> map = new ConcurrentLongMap<>();
+		for (long key = 0; key < 100; key++) map.putIfAbsent(key, key);
+		
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicInteger misses = new AtomicInteger();
+		final Thread reader = new Thread(() -> {
+			while (running.get()) {
+				for (long key = 0; key < 100; key++) {
+					final Long value = map.get(key);
+					if (value == null || value != key) misses.incrementAndGet();
+				}
+			}
+		});
+		reader.start();
+		for (int i = 0; i < 100000; i++) {
+			final long key = 1000 + (i % 500);
+			if (map.remove(key) == null) map.putIfAbsent(key, key);
+		}
+		running.set(false);
+		reader.join();
+		assertEquals(0, misses.get());
+	}
+	
+}
@@ -0,0 +1,163 @@
+package com.gpergrossi.procgen;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.jupiter.api.Test;
+
+import com.gpergrossi.util.io.ndmf.HashIndex;
+import com.gpergrossi.util.io.ndmf.NamedDataMapFile;
+import com.gpergrossi.view.chunks.NDMFChunkStore;
+
+public class HashIndexTest {
+
+	private static final int BLOCK_SIZE = 128;
+	private static final int NUM_ENTRIES = 2000;
+	
+	private static NamedDataMapFile<Long, byte[]> newFile() {
+		return new NamedDataMapFile<>(NDMFChunkStore.CHUNK_KEY_HANDLER, NDMFChunkStore.CHUNK_DATA_HANDLER, BLOCK_SIZE, 2);
+	}
+	
+	private static byte[] dataFor(long key) {
+		final byte[] data = new byte[(int) (key % 300) + 1];
+		for (int i = 0; i < data.length; i++) data[i] = (byte) (key * 31 + i);
+		return data;
+	}
+	
+	private static File tempFile() throws IOException {
+		final File file = File.createTempFile("hashindex", ".ndmf");
+		file.delete();
+		file.deleteOnExit();
+		return file;
+	}
+	
+	@Test
+	public void testRehashAndReopen() throws IOException {
+		final File file = tempFile();
+		try {
+			NamedDataMapFile<Long, byte[]> ndmf = newFile();
+			ndmf.open(file);
+			for (long key = 0; key < NUM_ENTRIES; key++) {
+				ndmf.set(key * 7919, dataFor(key));
+			}
+			final HashIndex<?, ?> index = (HashIndex<?, ?>) ndmf.debugGetStoredNames();
+			assertTrue(index.getNumBuckets() > 2, "the index should have been rehashed");
+			assertEquals(NUM_ENTRIES, ndmf.size());
+			ndmf.close();
+			
+			ndmf = newFile();
+			ndmf.open(file);
+			assertEquals(NUM_ENTRIES, ndmf.size());
+			assertEquals(index.getNumBuckets(), ((HashIndex<?, ?>) ndmf.debugGetStoredNames()).getNumBuckets());
+			for (long key = 0; key < NUM_ENTRIES; key++) {
+				assertArrayEquals(dataFor(key), ndmf.get(key * 7919), "entry "+key);
+			}
+			
+			// Remove every other entry and replace the rest
+			for (long key = 0; key < NUM_ENTRIES; key++) {
+				ndmf.set(key * 7919, (key % 2 == 0) ? null : dataFor(key + 1));
+			}
+			ndmf.close();
+			
+			ndmf = newFile();
+			ndmf.open(file);
+			assertEquals(NUM_ENTRIES / 2, ndmf.size());
+			for (long key = 0; key < NUM_ENTRIES; key++) {
+				if (key % 2 == 0) assertNull(ndmf.get(key * 7919), "entry "+key);
+				else assertArrayEquals(dataFor(key + 1), ndmf.get(key * 7919), "entry "+key);
+			}
+			ndmf.close();
+		} finally {
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Old buckets may only be freed (and so reused) once a header pointing at the new table has been 
+	 * synced. Records the table the header pointed at during each sync and checks every freed block 
+	 * against it, then copies the file while it is still open, as a crash would leave it, and reopens the copy.
+	 */
+	@Test
+	public void testRehashFreesOldBucketsAfterSync() throws IOException {
+		final File file = tempFile();
+		final File copy = tempFile();
+		try {
+			final int[] syncedTable = new int[2];	// First bucket and number of buckets at the last sync
+			final int[] rehashes = new int[1];
+			final NamedDataMapFile<Long, byte[]> ndmf = new NamedDataMapFile<Long, byte[]>(NDMFChunkStore.CHUNK_KEY_HANDLER, NDMFChunkStore.CHUNK_DATA_HANDLER, BLOCK_SIZE, 2) {
+				@Override
+				public synchronized void sync() throws IOException {
+					final HashIndex<?, ?> index = (HashIndex<?, ?>) debugGetStoredNames();
+					if (index != null) {
+						if (syncedTable[0] != 0 && syncedTable[0] != index.getFirstBucket()) rehashes[0]++;
+						syncedTable[0] = index.getFirstBucket();
+						syncedTable[1] = index.getNumBuckets();
+					}
+					super.sync();
+				}
+				
+				@Override
+				protected void markBlocksFree(int startBlocksFreed, int endBlocksFreed) throws IOException {
+					final int first = syncedTable[0], last = syncedTable[0] + syncedTable[1] - 1;
+					assertTrue(endBlocksFreed < first || startBlocksFreed > last, 
+							"blocks "+startBlocksFreed+"-"+endBlocksFreed+" freed while the synced header points at buckets "+first+"-"+last);
+					super.markBlocksFree(startBlocksFreed, endBlocksFreed);
+				}
+			};
+			ndmf.open(file);
+			for (long key = 0; key < NUM_ENTRIES; key++) {
+				ndmf.set(key * 31, dataFor(key));
+			}
+			assertTrue(rehashes[0] > 1, "the index should have been rehashed several times");
+			
+			Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			ndmf.close();
+			
+			final NamedDataMapFile<Long, byte[]> reopened = newFile();
+			reopened.open(copy);
+			assertEquals(NUM_ENTRIES, reopened.size());
+			for (long key = 0; key < NUM_ENTRIES; key++) {
+				assertArrayEquals(dataFor(key), reopened.get(key * 31), "entry "+key);
+			}
+			reopened.close();
+		} finally {
+			file.delete();
+			copy.delete();
+		}
+	}
+	
+	/**
+	 * A file copied while open has no entry count in its header and must recount on open
+	 */
+	@Test
+	public void testReopenWithoutClose() throws IOException {
+		final File file = tempFile();
+		final File copy = tempFile();
+		try {
+			final NamedDataMapFile<Long, byte[]> ndmf = newFile();
+			ndmf.open(file);
+			for (long key = 0; key < NUM_ENTRIES; key++) {
+				ndmf.set(key, dataFor(key));
+			}
+			ndmf.set(3L, null);
+			ndmf.sync();
+			Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			ndmf.close();
+			
+			final NamedDataMapFile<Long, byte[]> reopened = newFile();
+			reopened.open(copy);
+			assertEquals(NUM_ENTRIES - 1, reopened.size());
+			assertNull(reopened.get(3L));
+			assertArrayEquals(dataFor(NUM_ENTRIES - 1), reopened.get((long) NUM_ENTRIES - 1));
+			reopened.close();
+		} finally {
+			file.delete();
+			copy.delete();
+		}
+	}
+	
+}
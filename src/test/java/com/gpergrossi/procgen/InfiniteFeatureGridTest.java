@@ -0,0 +1,89 @@
+package com.gpergrossi.procgen;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import com.gpergrossi.util.geom.ranges.Int2DRange;
+import com.gpergrossi.util.math.func2d.FiniteFeature;
+import com.gpergrossi.util.math.func2d.InfiniteFeatureGrid;
+
+public class InfiniteFeatureGridTest {
+
+	/**
+	 * A cone of the given radius centered on the local origin
+	 */
+	private static FiniteFeature cone(int radius, float height) {
+		final Int2DRange.Floats data = new Int2DRange.Floats(-radius, -radius, radius, radius);
+		for (int y = -radius; y <= radius; y++) {
+			for (int x = -radius; x <= radius; x++) {
+				final float distance = (float) Math.sqrt(x*x + y*y);
+				data.set(x, y, Math.max(0, height * (1 - distance/radius)));
+			}
+		}
+		return new FiniteFeature(data);
+	}
+	
+	/**
+	 * A feature that is wider than it is tall and not centered, so rotations are visible
+	 */
+	private static FiniteFeature bar() {
+		final Int2DRange.Floats data = new Int2DRange.Floats(-3, -12, 20, 5);
+		for (int y = -12; y <= 5; y++) {
+			for (int x = -3; x <= 20; x++) {
+				data.set(x, y, (x + 3) * 0.05f + (y & 1));
+			}
+		}
+		return new FiniteFeature(data);
+	}
+	
+	private static void assertFillMatchesGetValue(InfiniteFeatureGrid grid, int width, int height, double originX, double originY, double step) {
+		final double[] filled = new double[width*height];
+		grid.fill(filled, width, height, originX, originY, step);
+		
+		int nonZero = 0;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				final double expected = grid.getValue(originX + x*step, originY + y*step);
+				assertEquals(expected, filled[y*width + x], "sample ("+x+", "+y+")");
+				if (expected != 0) nonZero++;
+			}
+		}
+		assertTrue(nonZero > 0, "the region should contain features");
+	}
+	
+	@Test
+	public void testFillMatchesGetValue() {
+		final InfiniteFeatureGrid grid = new InfiniteFeatureGrid(42, 32, 32)
+				.addFeature(3, cone(10, 1))
+				.addFeature(1, cone(14, 2));
+		assertFillMatchesGetValue(grid, 97, 61, -150.25, 80.5, 1.0);
+	}
+	
+	@Test
+	public void testFillMatchesGetValueTransformed() {
+		final InfiniteFeatureGrid grid = new InfiniteFeatureGrid(-7, 40, 24)
+				.addFeature(2, cone(9, 1))
+				.addFeature(1, bar())
+				.allowRotation(0, (float) (2*Math.PI))
+				.allowScaling(0.5f, 1.75f)
+				.allowTranslation(30, 20);
+		assertFillMatchesGetValue(grid, 120, 90, -61.5, -333.0, 1.5);
+		assertFillMatchesGetValue(grid, 41, 37, 1000.125, 2000.375, 0.75);
+	}
+	
+	@Test
+	public void testPlacementDoesNotDependOnSamplingOrder() {
+		final InfiniteFeatureGrid first = new InfiniteFeatureGrid(5, 32, 32).addFeature(1, bar()).allowRotation(-1, 1).allowTranslation(16, 16);
+		final InfiniteFeatureGrid second = new InfiniteFeatureGrid(5, 32, 32).addFeature(1, bar()).allowRotation(-1, 1).allowTranslation(16, 16);
+		
+		// Fill a distant region first so the second grid's placement cache holds other tiles
+		second.fill(new double[64*64], 64, 64, 50000, -50000, 4);
+		for (int y = 0; y < 50; y++) {
+			for (int x = 0; x < 50; x++) {
+				assertEquals(first.getValue(x*2.5, y*2.5), second.getValue(x*2.5, y*2.5));
+			}
+		}
+	}
+	
+}
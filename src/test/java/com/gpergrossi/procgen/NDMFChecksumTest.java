@@ -0,0 +1,78 @@
+package com.gpergrossi.procgen;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+
+import com.gpergrossi.util.io.ndmf.NDMFVerifier;
+import com.gpergrossi.util.io.ndmf.NamedDataMapFile;
+import com.gpergrossi.view.chunks.NDMFChunkStore;
+
+public class NDMFChecksumTest {
+
+	private static final int BLOCK_SIZE = 256;
+	
+	private static NamedDataMapFile<Long, byte[]> newFile() {
+		return new NamedDataMapFile<>(NDMFChunkStore.CHUNK_KEY_HANDLER, NDMFChunkStore.CHUNK_DATA_HANDLER, BLOCK_SIZE);
+	}
+	
+	private static byte[] dataFor(long key) {
+		final byte[] data = new byte[500];
+		for (int i = 0; i < data.length; i++) data[i] = (byte) (key + i * i);
+		return data;
+	}
+	
+	@Test
+	public void testCorruptionIsDetected() throws IOException {
+		final File file = File.createTempFile("checksum", ".ndmf");
+		file.delete();
+		file.deleteOnExit();
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			NamedDataMapFile<Long, byte[]> ndmf = newFile();
+			ndmf.open(file);
+			for (long key = 0; key < 20; key++) {
+				ndmf.set(key, dataFor(key));
+			}
+			final int corruptBlock = ndmf.debugGetStoredNames().get(7L);
+			assertTrue(NDMFVerifier.verifyChecksums(ndmf, executor).isEmpty());
+			ndmf.close();
+			
+			// Flip one byte of the compressed body, past the segment header, data header and checksum
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				final long position = (long) corruptBlock * BLOCK_SIZE + 4 + 1 + 4 + 10;
+				raf.seek(position);
+				final int value = raf.read();
+				raf.seek(position);
+				raf.write(value ^ 0x5A);
+			}
+			
+			ndmf = newFile();
+			ndmf.open(file);
+			final List<Integer> failed = NDMFVerifier.verifyChecksums(ndmf, executor);
+			assertEquals(Collections.singletonList(corruptBlock), failed);
+			
+			final NamedDataMapFile<Long, byte[]> opened = ndmf;
+			final RuntimeException error = assertThrows(RuntimeException.class, () -> opened.get(7L));
+			assertTrue(error.getCause() instanceof IOException);
+			assertTrue(error.getCause().getMessage().contains("Checksum mismatch"));
+			
+			for (long key = 0; key < 20; key++) {
+				if (key != 7) assertArrayEquals(dataFor(key), ndmf.get(key), "entry "+key);
+			}
+			ndmf.close();
+		} finally {
+			executor.shutdown();
+			file.delete();
+		}
+	}
+	
+}
@@ -0,0 +1,116 @@
+package com.gpergrossi.procgen;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import com.gpergrossi.util.geom.ranges.Int2DRange;
+import com.gpergrossi.util.math.ParallelRasterizer;
+import com.gpergrossi.util.math.func2d.FractalNoise2D;
+import com.gpergrossi.util.math.func2d.Function2D;
+import com.gpergrossi.util.math.func3d.FractalNoise3D;
+import com.gpergrossi.util.math.func3d.Function3D;
+
+public class ParallelRasterizerTest {
+
+	private static final int[] POOL_SIZES = { 1, 2, 4 };
+	private static final int[] BAND_SIZES = { 1, 3, 16 };
+	
+	// An origin and step that are not exactly representable, so row origins are rounded
+	private static final double ORIGIN_X = -12.3, ORIGIN_Y = 45.7, ORIGIN_Z = 0.3, STEP = 0.1;
+	
+	/**
+	 * Runs the scaling benchmark. Not part of the unit tests.
+	 */
+	public static void main(String[] args) {
+		new ParallelRasterizerTest().profile(2048, 5);
+	}
+	
+	private static void assertMatchesSerial(Function2D function, int width, int height) {
+		final Int2DRange.Floats expected = new Int2DRange.Floats(0, 0, width-1, height-1);
+		function.fill(expected, ORIGIN_X, ORIGIN_Y, STEP);
+		
+		for (int threads : POOL_SIZES) {
+			final ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				for (int bandRows : BAND_SIZES) {
+					final Int2DRange.Floats actual = new Int2DRange.Floats(0, 0, width-1, height-1);
+					new ParallelRasterizer(pool, bandRows, 1).fill(function, actual, ORIGIN_X, ORIGIN_Y, STEP);
+					assertArrayEquals(expected.data, actual.data, threads+" threads, "+bandRows+" rows per band");
+				}
+			} finally {
+				pool.shutdown();
+			}
+		}
+	}
+	
+	@Test
+	public void testFractalNoise2DMatchesSerialFill() {
+		final Function2D noise = new FractalNoise2D.Builder().withSeed(99).withPeriod(37).withOctaves(5).build();
+		assertMatchesSerial(noise, 70, 53);
+	}
+	
+	/**
+	 * Encodes the low bits of the sample coordinates, so that any difference in how a 
+	 * band computes its sample positions shows up in the output
+	 */
+	@Test
+	public void testSampleCoordinatesMatchSerialFill() {
+		final Function2D coordinates = (x, y) -> (Double.doubleToLongBits(y) & 0xFFF) + (Double.doubleToLongBits(x) & 0xFFF) * 4096.0;
+		assertMatchesSerial(coordinates, 31, 67);
+	}
+	
+	@Test
+	public void testFunction3DMatchesSerialFill() {
+		assertMatchesSerial(FractalNoise3D.builder().withSeed(3).withPeriod(13).withOctaves(3).build());
+		assertMatchesSerial((x, y, z) -> (Double.doubleToLongBits(z) & 0xFFFFF) + (Double.doubleToLongBits(y) & 0xFFFFF) * 0x1p20 + (Double.doubleToLongBits(x) & 0xFFF) * 0x1p40);
+	}
+	
+	private static void assertMatchesSerial(Function3D function) {
+		final int sizeX = 9, sizeY = 11, sizeZ = 37;
+		final double[] expected = new double[sizeX*sizeY*sizeZ];
+		function.fill(expected, sizeX, sizeY, sizeZ, ORIGIN_X, ORIGIN_Y, ORIGIN_Z, STEP);
+		
+		for (int threads : POOL_SIZES) {
+			final ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				for (int slabLayers : BAND_SIZES) {
+					final double[] actual = new double[expected.length];
+					new ParallelRasterizer(pool, 1, slabLayers).fill(function, actual, sizeX, sizeY, sizeZ, ORIGIN_X, ORIGIN_Y, ORIGIN_Z, STEP);
+					assertArrayEquals(expected, actual, threads+" threads, "+slabLayers+" layers per slab");
+				}
+			} finally {
+				pool.shutdown();
+			}
+		}
+	}
+	
+	/**
+	 * Times a size x size fill of 6-octave fractal noise on pools of 1, 2, 4, ... threads up to 
+	 * twice the number of processors, and reports the speed-up over one thread.
+	 */
+	public void profile(int size, int rounds) {
+		final Function2D noise = new FractalNoise2D.Builder().withSeed(1).withPeriod(256).withOctaves(6).build();
+		final Int2DRange.Floats out = new Int2DRange.Floats(0, 0, size-1, size-1);
+		final int maxThreads = 2 * Runtime.getRuntime().availableProcessors();
+		System.out.println(size+"x"+size+" fractal noise, "+Runtime.getRuntime().availableProcessors()+" processors");
+		
+		double singleThreadMillis = 0;
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			final ForkJoinPool pool = new ForkJoinPool(threads);
+			final ParallelRasterizer rasterizer = new ParallelRasterizer(pool, ParallelRasterizer.DEFAULT_BAND_ROWS, ParallelRasterizer.DEFAULT_SLAB_LAYERS);
+			double bestMillis = Double.POSITIVE_INFINITY;
+			for (int round = 0; round < rounds; round++) {
+				final long time = System.nanoTime();
+				rasterizer.fill(noise, out, 0, 0, 1);
+				bestMillis = Math.min(bestMillis, (System.nanoTime() - time) * 1e-6);
+			}
+			pool.shutdown();
+			if (threads == 1) singleThreadMillis = bestMillis;
+			System.out.printf("%d threads: %.1f ms (speed-up %.2fx)%n", threads, bestMillis, singleThreadMillis / bestMillis);
+		}
+	}
+	
+}
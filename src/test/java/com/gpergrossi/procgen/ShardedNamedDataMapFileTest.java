@@ -0,0 +1,119 @@
+package com.gpergrossi.procgen;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+
+import com.gpergrossi.util.io.ndmf.ShardedNamedDataMapFile;
+import com.gpergrossi.view.chunks.NDMFChunkStore;
+
+public class ShardedNamedDataMapFileTest {
+
+	private static final int BLOCK_SIZE = 256;
+
+	private static ShardedNamedDataMapFile<Long, byte[]> newStore(int numShards) {
+		return new ShardedNamedDataMapFile<>(NDMFChunkStore.CHUNK_KEY_HANDLER, NDMFChunkStore.CHUNK_DATA_HANDLER, BLOCK_SIZE, numShards);
+	}
+
+	private static byte[] dataFor(long key) {
+		final byte[] data = new byte[100];
+		for (int i = 0; i < data.length; i++) data[i] = (byte) (key * 31 + i);
+		return data;
+	}
+
+	private static void delete(File directory) {
+		final File[] files = directory.listFiles();
+		if (files != null) for (File file : files) file.delete();
+		directory.delete();
+	}
+
+	@Test
+	public void testReopenKeepsEntries() throws IOException {
+		final File directory = Files.createTempDirectory("sharded").toFile();
+		try {
+			ShardedNamedDataMapFile<Long, byte[]> store = newStore(4);
+			store.open(directory);
+			for (long key = 0; key < 50; key++) store.set(key, dataFor(key));
+			store.close();
+
+			store = newStore(4);
+			store.open(directory);
+			for (long key = 0; key < 50; key++) assertArrayEquals(dataFor(key), store.get(key), "entry "+key);
+			store.close();
+		} finally {
+			delete(directory);
+		}
+	}
+
+	@Test
+	public void testReopenWithDifferentShardCountThrows() throws IOException {
+		final File directory = Files.createTempDirectory("sharded").toFile();
+		try {
+			final ShardedNamedDataMapFile<Long, byte[]> store = newStore(4);
+			store.open(directory);
+			store.set(1L, dataFor(1));
+			store.close();
+
+			final ShardedNamedDataMapFile<Long, byte[]> fewer = newStore(3);
+			assertThrows(IOException.class, () -> fewer.open(directory));
+			assertFalse(fewer.isOpen());
+
+			final ShardedNamedDataMapFile<Long, byte[]> more = newStore(5);
+			assertThrows(IOException.class, () -> more.open(directory));
+			assertFalse(new File(directory, "shard-4.ndmf").exists());
+		} finally {
+			delete(directory);
+		}
+	}
+
+	@Test
+	public void testMissingMetadataChecksShardFiles() throws IOException {
+		final File directory = Files.createTempDirectory("sharded").toFile();
+		try {
+			final ShardedNamedDataMapFile<Long, byte[]> store = newStore(2);
+			store.open(directory);
+			store.close();
+			assertTrue(new File(directory, "shards.meta").delete());
+
+			final ShardedNamedDataMapFile<Long, byte[]> other = newStore(3);
+			assertThrows(IOException.class, () -> other.open(directory));
+
+			// The right shard count is accepted and the metadata is written again
+			final ShardedNamedDataMapFile<Long, byte[]> same = newStore(2);
+			same.open(directory);
+			same.close();
+			assertTrue(new File(directory, "shards.meta").exists());
+		} finally {
+			delete(directory);
+		}
+	}
+
+	@Test
+	public void testUnsupportedVersionThrows() throws IOException {
+		final File directory = Files.createTempDirectory("sharded").toFile();
+		try {
+			final ShardedNamedDataMapFile<Long, byte[]> store = newStore(2);
+			store.open(directory);
+			store.close();
+
+			try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(new File(directory, "shards.meta")))) {
+				dos.writeInt(0x53484E44);
+				dos.writeInt(99);
+				dos.writeInt(2);
+				dos.writeInt(0x4E444D46);
+			}
+			final ShardedNamedDataMapFile<Long, byte[]> reopened = newStore(2);
+			final IOException error = assertThrows(IOException.class, () -> reopened.open(directory));
+			assertTrue(error.getMessage().contains("version"));
+		} finally {
+			delete(directory);
+		}
+	}
+
+}
@@ -0,0 +1,146 @@
+package com.gpergrossi.procgen;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.gpergrossi.util.geom.ranges.Int2DRange;
+import com.gpergrossi.util.math.SimplexNoise;
+import com.gpergrossi.util.math.func2d.FractalNoise2D;
+import com.gpergrossi.util.math.func2d.Function2D;
+import com.gpergrossi.util.math.func2d.SimplexNoise2D;
+
+public class SimplexNoiseBatchTest {
+
+	private static final int NUM_POINTS = 65536;
+	
+	/**
+	 * Runs the scalar vs. batch benchmark. Not part of the unit tests.
+	 */
+	public static void main(String[] args) {
+		new SimplexNoiseBatchTest().profile(10);
+	}
+	
+	private static double[] randomCoordinates(Random random, int count) {
+		final double[] coords = new double[count];
+		for (int i = 0; i < count; i++) coords[i] = (random.nextDouble() - 0.5) * 512.0;
+		return coords;
+	}
+	
+	@Test
+	public void testBatchMatchesScalar2D() {
+		final SimplexNoise noise = new SimplexNoise(1234);
+		final Random random = new Random(1);
+		final double[] xs = randomCoordinates(random, NUM_POINTS);
+		final double[] ys = randomCoordinates(random, NUM_POINTS);
+		final float[] out = new float[NUM_POINTS+3];
+		
+		noise.getValues(xs, ys, out, 3, NUM_POINTS);
+		for (int i = 0; i < NUM_POINTS; i++) {
+			assertEquals(noise.getValue(xs[i], ys[i]), out[i+3], 1e-5, "point "+i);
+		}
+	}
+	
+	@Test
+	public void testBatchMatchesScalar3D() {
+		final SimplexNoise noise = new SimplexNoise(1234);
+		final Random random = new Random(2);
+		final double[] xs = randomCoordinates(random, NUM_POINTS);
+		final double[] ys = randomCoordinates(random, NUM_POINTS);
+		final double[] zs = randomCoordinates(random, NUM_POINTS);
+		final float[] out = new float[NUM_POINTS];
+		
+		noise.getValues(xs, ys, zs, out, 0, NUM_POINTS);
+		for (int i = 0; i < NUM_POINTS; i++) {
+			assertEquals(noise.getValue(xs[i], ys[i], zs[i]), out[i], 1e-5, "point "+i);
+		}
+	}
+	
+	@Test
+	public void testFloatsFillMatchesGetValue() {
+		final Function2D[] functions = {
+			new SimplexNoise2D(99, 1.0/64.0),
+			new FractalNoise2D.Builder().withSeed(99).withPeriod(128).withOctaves(5).build()
+		};
+		for (Function2D function : functions) {
+			final Int2DRange.Floats out = new Int2DRange.Floats(-20, 5, 43, 36);
+			final double originX = -317.25, originY = 41.5, step = 0.75;
+			function.fill(out, originX, originY, step);
+			for (int y = 0; y < out.height; y++) {
+				for (int x = 0; x < out.width; x++) {
+					final float expected = (float) function.getValue(originX + x*step, originY + y*step);
+					assertEquals(expected, out.get(out.minX + x, out.minY + y), function+" at "+x+", "+y);
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testFloatArrayFillWithinRounding() {
+		final SimplexNoise2D simplex = new SimplexNoise2D(99, 1.0/64.0);
+		final FractalNoise2D fractal = new FractalNoise2D.Builder().withSeed(99).withPeriod(128).withOctaves(5).build();
+		final int width = 64, height = 32;
+		final double originX = -317.25, originY = 41.5, step = 0.75;
+		final float[] simplexOut = new float[width*height];
+		final float[] fractalOut = new float[width*height];
+		simplex.fill(simplexOut, width, height, originX, originY, step);
+		fractal.fill(fractalOut, width, height, originX, originY, step);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				final double sampleX = originX + x*step, sampleY = originY + y*step;
+				assertEquals(simplex.getValue(sampleX, sampleY), simplexOut[y*width + x], 1e-5, "simplex at "+x+", "+y);
+				assertEquals(fractal.getValue(sampleX, sampleY), fractalOut[y*width + x], 1e-5, "fractal at "+x+", "+y);
+			}
+		}
+	}
+	
+	/**
+	 * Times the scalar getValue() loop against the batch getValues() kernel over the same random 
+	 * points, in 2D and 3D. The first rounds warm up the JIT; compare the later ones.
+	 */
+	public void profile(int rounds) {
+		final SimplexNoise noise = new SimplexNoise(1234);
+		final Random random = new Random(0);
+		final double[] xs = randomCoordinates(random, NUM_POINTS);
+		final double[] ys = randomCoordinates(random, NUM_POINTS);
+		final double[] zs = randomCoordinates(random, NUM_POINTS);
+		final float[] out = new float[NUM_POINTS];
+		final int repeats = 20;
+		double sink = 0;	// Keeps the JIT from discarding the scalar results
+		
+		for (int round = 0; round < rounds; round++) {
+			long time = System.nanoTime();
+			for (int r = 0; r < repeats; r++) {
+				for (int i = 0; i < NUM_POINTS; i++) sink += noise.getValue(xs[i], ys[i]);
+			}
+			final double scalar2D = (System.nanoTime() - time) / (double) (repeats*NUM_POINTS);
+			
+			time = System.nanoTime();
+			for (int r = 0; r < repeats; r++) {
+				noise.getValues(xs, ys, out, 0, NUM_POINTS);
+				sink += out[r];
+			}
+			final double batch2D = (System.nanoTime() - time) / (double) (repeats*NUM_POINTS);
+			
+			time = System.nanoTime();
+			for (int r = 0; r < repeats; r++) {
+				for (int i = 0; i < NUM_POINTS; i++) sink += noise.getValue(xs[i], ys[i], zs[i]);
+			}
+			final double scalar3D = (System.nanoTime() - time) / (double) (repeats*NUM_POINTS);
+			
+			time = System.nanoTime();
+			for (int r = 0; r < repeats; r++) {
+				noise.getValues(xs, ys, zs, out, 0, NUM_POINTS);
+				sink += out[r];
+			}
+			final double batch3D = (System.nanoTime() - time) / (double) (repeats*NUM_POINTS);
+			
+			System.out.printf("Round %d: 2D scalar %.1f ns, batch %.1f ns \t3D scalar %.1f ns, batch %.1f ns (per sample)%n", 
+					round, scalar2D, batch2D, scalar3D, batch3D);
+		}
+		System.out.println("(checksum "+sink+")");
+	}
+	
+}
@@ -0,0 +1,111 @@
+package com.gpergrossi.procgen;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.gpergrossi.util.math.func2d.FractalNoise2D;
+import com.gpergrossi.util.math.func2d.Function2D;
+import com.gpergrossi.util.math.func2d.TileCachedFunction2D;
+import com.gpergrossi.util.math.func2d.TileCachedFunction2D.Eviction;
+import com.gpergrossi.util.math.func2d.TileCachedFunction2D.Sampling;
+
+public class TileCachedFunction2DTest {
+
+	private static final int TILE_SIZE = 8;
+	private static final double STEP = 0.5;
+	
+	private static final Function2D NOISE = new FractalNoise2D.Builder().withSeed(11).withPeriod(40).withOctaves(3).build();
+	
+	@Test
+	public void testNearestMatchesSource() {
+		final TileCachedFunction2D cached = new TileCachedFunction2D(NOISE, TILE_SIZE, STEP, 16, Sampling.NEAREST, Eviction.OLDEST);
+		final Random random = new Random(3);
+		for (int i = 0; i < 2000; i++) {
+			final int gridX = random.nextInt(200) - 100, gridY = random.nextInt(200) - 100;
+			final double x = gridX*STEP, y = gridY*STEP;
+			assertEquals((float) NOISE.getValue(x, y), (float) cached.getValue(x, y), "grid point "+gridX+", "+gridY);
+			
+			// Points less than half a step away snap to the same grid point
+			final double dx = (random.nextDouble() - 0.5) * 0.99 * STEP, dy = (random.nextDouble() - 0.5) * 0.99 * STEP;
+			assertEquals((float) NOISE.getValue(x, y), (float) cached.getValue(x + dx, y + dy), "near "+gridX+", "+gridY);
+		}
+	}
+	
+	@Test
+	public void testBilinearMatchesSource() {
+		final TileCachedFunction2D cached = new TileCachedFunction2D(NOISE, TILE_SIZE, STEP, 16, Sampling.BILINEAR, Eviction.LEAST_RECENTLY_USED);
+		final Random random = new Random(4);
+		for (int i = 0; i < 2000; i++) {
+			final int gridX = random.nextInt(200) - 100, gridY = random.nextInt(200) - 100;
+			final double x = gridX*STEP, y = gridY*STEP;
+			assertEquals((float) NOISE.getValue(x, y), (float) cached.getValue(x, y), "grid point "+gridX+", "+gridY);
+			
+			// Between grid points the value is interpolated from the four surrounding samples
+			final double tx = random.nextDouble(), ty = random.nextDouble();
+			final double v00 = (float) NOISE.getValue(x, y), v10 = (float) NOISE.getValue(x+STEP, y);
+			final double v01 = (float) NOISE.getValue(x, y+STEP), v11 = (float) NOISE.getValue(x+STEP, y+STEP);
+			final double expected = (v00*(1-tx) + v10*tx)*(1-ty) + (v01*(1-tx) + v11*tx)*ty;
+			assertEquals(expected, cached.getValue(x + tx*STEP, y + ty*STEP), 1e-6, "between "+gridX+", "+gridY);
+		}
+	}
+	
+	@Test
+	public void testHitsAndMisses() {
+		final TileCachedFunction2D cached = new TileCachedFunction2D(NOISE, TILE_SIZE, 1.0, 4, Sampling.NEAREST, Eviction.OLDEST);
+		for (int y = 0; y < TILE_SIZE; y++) {
+			for (int x = 0; x < TILE_SIZE; x++) cached.getValue(x, y);
+		}
+		assertEquals(1, cached.getMisses());
+		assertEquals(TILE_SIZE*TILE_SIZE - 1, cached.getHits());
+		assertEquals(1, cached.getNumCachedTiles());
+		
+		cached.getValue(-1, 0);
+		assertEquals(2, cached.getMisses());
+		assertEquals(2, cached.getNumCachedTiles());
+		
+		cached.clear();
+		assertEquals(0, cached.getNumCachedTiles());
+		cached.getValue(0, 0);
+		assertEquals(3, cached.getMisses());
+		assertEquals(0, cached.getEvictions());
+	}
+	
+	/**
+	 * Caches tiles A and B, reads A, then adds C. OLDEST evicts A because it was cached first, 
+	 * the second chance policy evicts B because A was read since it was cached.
+	 */
+	@Test
+	public void testEvictionOrder() {
+		final double a = 0, b = TILE_SIZE, c = 2*TILE_SIZE;
+		
+		final TileCachedFunction2D oldest = new TileCachedFunction2D(NOISE, TILE_SIZE, 1.0, 2, Sampling.NEAREST, Eviction.OLDEST);
+		oldest.getValue(a, 0);
+		oldest.getValue(b, 0);
+		oldest.getValue(a, 0);
+		oldest.getValue(c, 0);
+		assertEquals(3, oldest.getMisses());
+		assertEquals(1, oldest.getEvictions());
+		assertEquals(2, oldest.getNumCachedTiles());
+		oldest.getValue(b, 0);
+		assertEquals(3, oldest.getMisses());
+		oldest.getValue(a, 0);
+		assertEquals(4, oldest.getMisses());
+		
+		final TileCachedFunction2D secondChance = new TileCachedFunction2D(NOISE, TILE_SIZE, 1.0, 2, Sampling.NEAREST, Eviction.LEAST_RECENTLY_USED);
+		secondChance.getValue(a, 0);
+		secondChance.getValue(b, 0);
+		secondChance.getValue(a, 0);
+		secondChance.getValue(c, 0);
+		assertEquals(3, secondChance.getMisses());
+		assertEquals(1, secondChance.getEvictions());
+		assertEquals(2, secondChance.getNumCachedTiles());
+		secondChance.getValue(a, 0);
+		assertEquals(3, secondChance.getMisses());
+		secondChance.getValue(b, 0);
+		assertEquals(4, secondChance.getMisses());
+	}
+	
+}
@@ -1,5 +1,7 @@
 package com.gpergrossi.procgen;
 
+import static org.junit.jupiter.api.Assertions.*;
+
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
@@ -14,6 +16,8 @@ import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 
+import org.junit.jupiter.api.Test;
+
 import com.gpergrossi.util.hash.XXHash32;
 
 public class XXHash32DistributionTest {
@@ -23,6 +27,37 @@ public class XXHash32DistributionTest {
 		//new XXHash32DistributionTest().profile();
 	}
 	
+	/**
+	 * Reference values from the xxHash specification's XXH32 test vectors
+	 */
+	@Test
+	public void testHashBytesKnownAnswers() {
+		assertEquals(0x02CC5D05, XXHash32.hashBytes(0, new byte[0], 0, 0));
+		assertEquals(0x0B2CB792, XXHash32.hashBytes(1, new byte[0], 0, 0));
+		assertEquals(0x550D7456, hashString(0, "a"));
+		assertEquals(0x32D153FF, hashString(0, "abc"));
+		assertEquals(0xE2293B2F, hashString(0, "Nobody inspects the spammish repetition"));
+	}
+	
+	/**
+	 * Covers the 16-byte stripes, bytes above 0x7F, more than one trailing byte and non-zero offsets
+	 */
+	@Test
+	public void testHashBytesStripesAndTail() {
+		final byte[] bytes = new byte[256];
+		for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) i;
+		
+		assertEquals(0x59441253, XXHash32.hashBytes(0, bytes, 0, 256));
+		assertEquals(0x2F6EFC73, XXHash32.hashBytes(0x9E3779B1, bytes, 0, 256));
+		assertEquals(0x4839F169, XXHash32.hashBytes(0, bytes, 3, 20));
+		assertEquals(0x8059E5AC, XXHash32.hashBytes(7, bytes, 128, 17));
+	}
+	
+	private static int hashString(int seed, String str) {
+		final byte[] bytes = str.getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+		return XXHash32.hashBytes(seed, bytes, 0, bytes.length);
+	}
+	
 	public void testSpread() {
 		HashDistributionPanel hdp = new HashDistributionPanel();
 		